@@ -232,8 +232,6 @@ public class NottiActivity extends Activity {
 
                 Log.i(TAG, "START SCAN");
 
-                currentService.disconnectall();
-
                 currentService.startScan();
 
             } else {
@@ -273,7 +271,10 @@ public class NottiActivity extends Activity {
 
             if (currentService != null) {
 
-                currentService.disconnectall();
+                //connections are owned by service while a session is running
+                if (!currentService.isSessionActive()) {
+                    currentService.disconnectall();
+                }
 
                 if (scanningAdapter != null) {
                     scanningAdapter.clear();
@@ -394,9 +395,12 @@ public class NottiActivity extends Activity {
 
                 BluetoothObject btDevice = BluetoothObject.parseArrayList(intent);
 
-                if (btDevice != null) {
+                //known lamps are reconnected in background : only open the lamp the user has selected
+                if (btDevice != null && dialog != null && btDevice.getDeviceAddress().equals(deviceAddress)) {
 
-                    scanningListView.getChildAt(list_item_position).setBackgroundColor(Color.BLUE);
+                    if (scanningListView != null && scanningListView.getChildAt(list_item_position) != null) {
+                        scanningListView.getChildAt(list_item_position).setBackgroundColor(Color.BLUE);
+                    }
                     invalidateOptionsMenu();
 
                     Log.i(TAG, "Setting for device = > " + btDevice.getDeviceAddress() + " - " + btDevice.getDeviceName());
@@ -87,6 +87,11 @@ public class NottiDeviceActivity extends Activity implements ColorPicker.OnColor
      */
     private ProgressDialog progress;
 
+    /**
+     * define if activity is bound to service
+     */
+    private boolean bound = false;
+
     /**
      * Called when user click on icon slot
      *
@@ -124,11 +129,41 @@ public class NottiDeviceActivity extends Activity implements ColorPicker.OnColor
         SeekBar luminosityBar = (SeekBar) findViewById(R.id.intensity_bar);
         luminosityBar.setOnSeekBarChangeListener(this);
 
+        //init session button : lamps stay connected while a session is running, even when app is left
+        ToggleButton sessionButton = (ToggleButton) findViewById(R.id.sessionButton);
+        sessionButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+
+                ToggleButton sessionButton = (ToggleButton) v;
+
+                if (currentService == null) {
+                    sessionButton.setChecked(false);
+                    return;
+                }
+                if (sessionButton.isChecked()) {
+                    currentService.startSession();
+                } else {
+                    currentService.stopSession();
+                }
+                sessionButton.setChecked(currentService.isSessionActive());
+            }
+        });
+
         Intent intentMain = new Intent(this, NottiBtService.class);
 
-        // bind the service to current activity and create it if it didnt exist before
+        // create service if it didnt exist before
         startService(intentMain);
-        bindService(intentMain, mServiceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        if (!bound) {
+            // bind the service to current activity
+            bound = bindService(new Intent(this, NottiBtService.class), mServiceConnection, BIND_AUTO_CREATE);
+        }
     }
 
     /**
@@ -150,6 +185,9 @@ public class NottiDeviceActivity extends Activity implements ColorPicker.OnColor
                     device = (INottiDevice) currentService.getConnectionList().get(address).getDevice();
                 }
             }
+
+            ToggleButton sessionButton = (ToggleButton) findViewById(R.id.sessionButton);
+            sessionButton.setChecked(currentService.isSessionActive());
         }
 
         @Override
@@ -160,6 +198,7 @@ public class NottiDeviceActivity extends Activity implements ColorPicker.OnColor
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        unbind();
     }
 
     @Override
@@ -168,9 +207,22 @@ public class NottiDeviceActivity extends Activity implements ColorPicker.OnColor
         //unregister receiver on pause
         //unregisterReceiver(mGattUpdateReceiver);
 
+        //device screen stays bound while a session is running
+        if (currentService == null || !currentService.isSessionActive()) {
+            unbind();
+        }
+    }
+
+    /**
+     * unbind from service if bound
+     */
+    private void unbind() {
         try {
-            // unregister receiver or you will have strong exception
-            unbindService(mServiceConnection);
+            if (bound) {
+                // unregister receiver or you will have strong exception
+                unbindService(mServiceConnection);
+                bound = false;
+            }
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
         }
@@ -23,17 +23,36 @@
  */
 package fr.bmartel.android.notti.service;
 
+import android.app.Notification;
 import android.app.Service;
 import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.Parcel;
+import android.os.PowerManager;
+import android.os.RemoteException;
+import android.util.Log;
 
-import java.util.HashMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import fr.bmartel.android.notti.service.bluetooth.BluetoothCustomManager;
+import fr.bmartel.android.notti.service.bluetooth.BluetoothMetrics;
+import fr.bmartel.android.notti.service.bluetooth.GattFuture;
+import fr.bmartel.android.notti.service.bluetooth.PushFuture;
 import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceConn;
+import fr.bmartel.android.notti.service.bluetooth.events.CharacteristicEvent;
+import fr.bmartel.android.notti.service.bluetooth.events.ConnectionStateEvent;
+import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
+import fr.bmartel.android.notti.service.bluetooth.notti.INottiDevice;
+import fr.bmartel.android.notti.service.bluetooth.record.GattReplayer;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRegistry;
+import fr.bmartel.android.notti.service.stream.Stream;
 
 /**
  * Service persisting bluetooth connection
@@ -42,6 +61,8 @@ import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceCon
  */
 public class NottiBtService extends Service {
 
+    private final static String TAG = NottiBtService.class.getSimpleName();
+
     /**
      * Service binder
      */
@@ -56,20 +77,258 @@ public class NottiBtService extends Service {
         }
     }
 
+    /**
+     * intent action used by other processes to bind INottiService
+     */
+    public final static String ACTION_REMOTE_BIND = "fr.bmartel.android.notti.service.REMOTE_BIND";
+
+    /**
+     * Binder used by other processes
+     */
+    private final IBinder mRemoteBinder = new RemoteBinder();
+
+    /**
+     * permission required to call INottiService (declared in manifest with embedding application id)
+     */
+    private final static String REMOTE_PERMISSION_SUFFIX = ".permission.NOTTI_REMOTE_CONTROL";
+
+    /**
+     * INottiService implementation : calls are received on binder threads
+     */
+    private class RemoteBinder extends INottiService.Stub {
+
+        @Override
+        public boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            //local binding needs no permission, only remote calls are checked
+            if (checkCallingOrSelfPermission(getPackageName() + REMOTE_PERMISSION_SUFFIX) != PackageManager.PERMISSION_GRANTED) {
+                Log.e(TAG, "remote call rejected : missing permission " + getPackageName() + REMOTE_PERMISSION_SUFFIX);
+                return false;
+            }
+            return super.onTransact(code, data, reply, flags);
+        }
+
+        @Override
+        public int getHandle(String deviceAddress) {
+            IBluetoothDeviceConn conn = btManager.getConnectionList().get(deviceAddress);
+            return conn != null ? conn.getHandle() : -1;
+        }
+
+        @Override
+        public String[] getConnectedDevices() {
+            List<String> addressList = new ArrayList<>();
+            for (IBluetoothDeviceConn conn : btManager.getConnectionRegistry().snapshot()) {
+                if (conn.isConnected()) {
+                    addressList.add(conn.getAddress());
+                }
+            }
+            return addressList.toArray(new String[addressList.size()]);
+        }
+
+        @Override
+        public void connect(String deviceAddress) {
+            btManager.connect(deviceAddress);
+        }
+
+        @Override
+        public void disconnect(String deviceAddress) {
+            btManager.disconnect(deviceAddress);
+        }
+
+        @Override
+        public void setColors(int[] handles, int[] rgb) {
+
+            if (handles == null || rgb == null || handles.length != rgb.length) {
+                Log.e(TAG, "setColors : one color is expected per handle");
+                return;
+            }
+            for (int i = 0; i < handles.length; i++) {
+                INottiDevice device = getNottiDevice(handles[i]);
+                if (device != null) {
+                    device.setRGBColor((rgb[i] >> 16) & 0xFF, (rgb[i] >> 8) & 0xFF, rgb[i] & 0xFF, null);
+                }
+            }
+        }
+
+        @Override
+        public void setLuminosity(int[] handles, int[] rgb, int value) {
+
+            if (handles == null || rgb == null || handles.length != rgb.length) {
+                Log.e(TAG, "setLuminosity : one color is expected per handle");
+                return;
+            }
+            for (int i = 0; i < handles.length; i++) {
+                INottiDevice device = getNottiDevice(handles[i]);
+                if (device != null) {
+                    device.setLuminosityForColor(value, (rgb[i] >> 16) & 0xFF, (rgb[i] >> 8) & 0xFF, rgb[i] & 0xFF, null);
+                }
+            }
+        }
+
+        @Override
+        public void setOnOff(int[] handles, boolean state) {
+
+            if (handles == null) {
+                return;
+            }
+            for (int i = 0; i < handles.length; i++) {
+                INottiDevice device = getNottiDevice(handles[i]);
+                if (device != null) {
+                    device.setOnOff(state, null);
+                }
+            }
+        }
+
+        private INottiDevice getNottiDevice(int handle) {
+            IBluetoothDeviceConn conn = btManager.getConnectionRegistry().get(handle);
+            if (conn != null && conn.getDevice() instanceof INottiDevice) {
+                return (INottiDevice) conn.getDevice();
+            }
+            return null;
+        }
+    }
+
     private BluetoothCustomManager btManager = null;
 
+    /**
+     * device registry file name
+     */
+    private final static String DEVICE_REGISTRY_FILE = "devices.db";
+
+    private DeviceRegistry deviceRegistry = null;
+
+    /**
+     * foreground notification id used during session
+     */
+    private final static int SESSION_NOTIFICATION_ID = 1;
+
+    /**
+     * current or last session
+     */
+    private NottiSession session = null;
+
+    /**
+     * keeps cpu running during session
+     */
+    private PowerManager.WakeLock sessionWakeLock = null;
+
     @Override
     public void onCreate() {
 
-        //initiate bluetooth manager object used to manage all Android Bluetooth API
-        btManager = new BluetoothCustomManager(this);
+        //load persisted device state (single pass over fixed-size records)
+        deviceRegistry = new DeviceRegistry(new File(getFilesDir(), DEVICE_REGISTRY_FILE));
+        deviceRegistry.load();
+
+        //initiate bluetooth manager object used to manage all Android Bluetooth API : bluetooth transport is
+        //initialized on first use, a client only reading cached state never pays for it
+        btManager = new BluetoothCustomManager(this, deviceRegistry);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+
+        //get previously used lamps back without waiting for a scan. Done on each start : clients disconnect all
+        //devices when leaving (connections being established or established are left untouched)
+        btManager.connectKnownDevices();
 
-        //initialize bluetooth adapter
-        btManager.init(this);
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stopSession();
+        //timer and executor threads, gatt clients would be leaked by each service instance otherwise
+        btManager.close();
+        deviceRegistry.close();
+    }
+
+    /**
+     * start a session : service is kept running in foreground with its connections and gatt queues even when
+     * no client is bound anymore, until stopSession() is called
+     *
+     * @return false if a session is already active
+     */
+    public synchronized boolean startSession() {
+
+        if (session != null && session.isActive()) {
+            return false;
+        }
+
+        //started state keeps service alive when all clients unbind
+        startService(new Intent(this, NottiBtService.class));
+
+        Notification notification = new Notification.Builder(this)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.session_running))
+                .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setOngoing(true)
+                .build();
+        startForeground(SESSION_NOTIFICATION_ID, notification);
+
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        sessionWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        sessionWakeLock.setReferenceCounted(false);
+        sessionWakeLock.acquire();
+
+        session = new NottiSession(btManager.getMetrics());
+
+        Log.i(TAG, "session started");
+        return true;
+    }
+
+    /**
+     * stop current session : wake lock is released and service will be destroyed once all clients have unbound
+     *
+     * @return false if no session was active
+     */
+    public synchronized boolean stopSession() {
+
+        if (session == null || !session.isActive()) {
+            return false;
+        }
+        session.stop(btManager.getMetrics());
+
+        if (sessionWakeLock != null) {
+            sessionWakeLock.release();
+            sessionWakeLock = null;
+        }
+        stopForeground(true);
+        stopSelf();
+
+        //write lamp states updated during session
+        deviceRegistry.flush();
+
+        Log.i(TAG, session.toString());
+        return true;
+    }
+
+    public synchronized boolean isSessionActive() {
+        return session != null && session.isActive();
+    }
+
+    /**
+     * current or last session, used for resource accounting
+     *
+     * @return session or null if no session was started
+     */
+    public synchronized NottiSession getSession() {
+        return session;
+    }
+
+    /**
+     * persisted state of known devices
+     *
+     * @return
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
     }
 
     @Override
     public IBinder onBind(Intent intent) {
+        if (ACTION_REMOTE_BIND.equals(intent.getAction())) {
+            return mRemoteBinder;
+        }
         return mBinder;
     }
 
@@ -85,10 +344,175 @@ public class NottiBtService extends Service {
         btManager.stopScan();
     }
 
+    /**
+     * start duty-cycled background scan : known lamps found during scan windows are reconnected
+     *
+     * @param onWindow  scan window duration in ms
+     * @param offPeriod delay between two windows in ms
+     */
+    public void startBackgroundScan(int onWindow, int offPeriod) {
+        btManager.startBackgroundScan(onWindow, offPeriod);
+    }
+
+    public void stopBackgroundScan() {
+        btManager.stopBackgroundScan();
+    }
+
+    /**
+     * set maximum number of gatt clients opened at the same time. Background connections of known devices give way to
+     * user connections when all clients are in use
+     *
+     * @param maxClients maximum number of gatt clients
+     */
+    public void setMaxGattClients(int maxClients) {
+        btManager.setMaxGattClients(maxClients);
+    }
+
+    public void forgetDevice(String deviceAddress) {
+        btManager.forgetDevice(deviceAddress);
+    }
+
     public void connect(String deviceAddress) {
         btManager.connect(deviceAddress);
     }
 
+    /**
+     * connect to a device
+     *
+     * @param deviceAddress device address
+     * @return future completed when device is fully initialized
+     */
+    public GattFuture<IBluetoothDeviceConn> connectAsync(String deviceAddress) {
+        return btManager.connectAsync(deviceAddress);
+    }
+
+    /**
+     * wait for a device being connected (for instance a known device reconnected in background) to be initialized
+     *
+     * @param deviceAddress device address
+     * @return future completed when device is fully initialized
+     */
+    public GattFuture<IBluetoothDeviceConn> whenReady(String deviceAddress) {
+        return btManager.whenReady(deviceAddress);
+    }
+
+    /**
+     * start a scan
+     *
+     * @return future completed with discovered devices at end of scan
+     */
+    public GattFuture<Map<String, BluetoothDevice>> startScanAsync() {
+        return btManager.scanLeDeviceAsync();
+    }
+
+    /**
+     * write a characteristic of a connected device
+     *
+     * @param deviceAddress device address
+     * @param service       service uid
+     * @param charac        characteristic uid
+     * @param value         value to write
+     * @param priority      priority class (see GattPriority)
+     * @return future completed when write is acknowledged
+     */
+    public GattFuture<Void> writeCharacteristic(String deviceAddress, String service, String charac, byte[] value, int priority) {
+
+        PushFuture future = new PushFuture();
+
+        IBluetoothDeviceConn conn = btManager.getConnectionList().get(deviceAddress);
+
+        if (conn == null) {
+            future.fail();
+        } else {
+            future.setOperation(conn.writeCharacteristic(service, charac, value, priority, future));
+        }
+        return future;
+    }
+
+    /**
+     * read a characteristic of a connected device
+     *
+     * @param deviceAddress device address
+     * @param service       service uid
+     * @param charac        characteristic uid
+     * @return future completed with value read
+     */
+    public GattFuture<byte[]> readCharacteristic(String deviceAddress, String service, String charac) {
+
+        IBluetoothDeviceConn conn = btManager.getConnectionList().get(deviceAddress);
+
+        if (conn == null) {
+            return GattFuture.failed();
+        }
+        return conn.readCharacteristic(service, charac);
+    }
+
+    /**
+     * stream of devices found during scans
+     *
+     * @return
+     */
+    public Stream<BluetoothDevice> getScanResultStream() {
+        return btManager.getScanResultStream();
+    }
+
+    /**
+     * stream of connection state transitions of all devices
+     *
+     * @return
+     */
+    public Stream<ConnectionStateEvent> getConnectionStateStream() {
+        return btManager.getConnectionStateStream();
+    }
+
+    /**
+     * stream of characteristic notifications of a device. Stream can be subscribed before device is connected and
+     * keeps emitting after reconnections
+     *
+     * @param deviceAddress device address
+     * @return
+     */
+    public Stream<CharacteristicEvent> getNotificationStream(String deviceAddress) {
+        return btManager.getObservers(deviceAddress).getNotificationStream();
+    }
+
+    /**
+     * watch a characteristic of a device. Listener can be registered before device is connected and is kept across
+     * reconnections
+     *
+     * @param deviceAddress device address
+     * @param uid           characteristic uid (null for all characteristics)
+     * @param listener      listener
+     */
+    public void addCharacteristicListener(String deviceAddress, UUID uid, ICharacteristicListener listener) {
+        btManager.getObservers(deviceAddress).addCharacteristicListener(uid, listener);
+    }
+
+    public void removeCharacteristicListener(String deviceAddress, ICharacteristicListener listener) {
+        btManager.getObservers(deviceAddress).removeCharacteristicListener(listener);
+    }
+
+    /**
+     * stream emitting latest item of another stream at a fixed period (for instance to refresh a UI with notifications)
+     *
+     * @param stream stream to sample
+     * @param period sampling period in ms
+     * @return sampled stream
+     */
+    public <T> Stream<T> sample(Stream<T> stream, long period) {
+        return btManager.sample(stream, period);
+    }
+
+    /**
+     * stream of bluetooth counters
+     *
+     * @param period polling period in ms
+     * @return
+     */
+    public Stream<BluetoothMetrics> getMetricsStream(long period) {
+        return btManager.getMetricsStream(period);
+    }
+
     public boolean startScan() {
         return btManager.scanLeDevice();
     }
@@ -105,8 +529,30 @@ public class NottiBtService extends Service {
         btManager.disconnectAll();
     }
 
-    public HashMap<String, IBluetoothDeviceConn> getConnectionList() {
+    public Map<String, IBluetoothDeviceConn> getConnectionList() {
         return btManager.getConnectionList();
     }
 
+    public boolean startRecording(File file) {
+        return btManager.startRecording(file);
+    }
+
+    public void stopRecording() {
+        btManager.stopRecording();
+    }
+
+    /**
+     * replay a recorded gatt session in background
+     *
+     * @param file          session file
+     * @param speed         replay speed factor (1 for recorded speed)
+     * @param targetAddress device to send operations to (null for recorded devices)
+     * @return replayer that can be used to stop replay and read results
+     */
+    public GattReplayer replay(File file, float speed, String targetAddress) {
+        GattReplayer replayer = new GattReplayer(btManager, file, speed, targetAddress);
+        new Thread(replayer).start();
+        return replayer;
+    }
+
 }
\ No newline at end of file
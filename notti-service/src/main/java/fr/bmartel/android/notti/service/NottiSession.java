@@ -0,0 +1,101 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service;
+
+import fr.bmartel.android.notti.service.bluetooth.BluetoothMetrics;
+
+/**
+ * Service session during which connections are kept alive independently of bound clients
+ *
+ * @author Bertrand Martel
+ */
+public class NottiSession {
+
+    private final long startTime;
+
+    private volatile long stopTime = 0;
+
+    /**
+     * bluetooth counters when session started
+     */
+    private final BluetoothMetrics startMetrics;
+
+    /**
+     * bluetooth counters when session stopped
+     */
+    private volatile BluetoothMetrics stopMetrics = null;
+
+    NottiSession(BluetoothMetrics startMetrics) {
+        this.startTime = System.currentTimeMillis();
+        this.startMetrics = startMetrics;
+    }
+
+    void stop(BluetoothMetrics metrics) {
+        stopMetrics = metrics;
+        stopTime = System.currentTimeMillis();
+    }
+
+    public boolean isActive() {
+        return stopTime == 0;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * time during which service was kept in foreground with a wake lock held
+     *
+     * @return duration in ms (up to now if session is active)
+     */
+    public long getDuration() {
+        return (isActive() ? System.currentTimeMillis() : stopTime) - startTime;
+    }
+
+    public BluetoothMetrics getStartMetrics() {
+        return startMetrics;
+    }
+
+    /**
+     * @return counters when session stopped or null if session is active
+     */
+    public BluetoothMetrics getStopMetrics() {
+        return stopMetrics;
+    }
+
+    @Override
+    public String toString() {
+        BluetoothMetrics end = stopMetrics;
+        StringBuilder builder = new StringBuilder();
+        builder.append("session duration=").append(getDuration()).append("ms");
+        if (end != null) {
+            builder.append(" connections=").append(end.getConnectionCount())
+                    .append(" gattClients=").append(end.getOpenClientCount())
+                    .append(" packedWrites=").append(end.getPackedWriteCount() - startMetrics.getPackedWriteCount())
+                    .append(" rejectedClients=").append(end.getRejectedClientCount() - startMetrics.getRejectedClientCount())
+                    .append(" leakedClients=").append(end.getLeakedClientCount() - startMetrics.getLeakedClientCount());
+        }
+        return builder.toString();
+    }
+}
@@ -35,4 +35,14 @@ public class BluetoothConst {
     public final static String DEVICE_ADDRESS = "address";
 
     public final static String DEVICE_NAME = "deviceName";
+
+    /**
+     * default ATT MTU
+     */
+    public final static int DEFAULT_MTU = 23;
+
+    /**
+     * ATT write header size (opcode + handle)
+     */
+    public final static int ATT_HEADER_SIZE = 3;
 }
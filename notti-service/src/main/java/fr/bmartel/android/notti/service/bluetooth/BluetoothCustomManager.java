@@ -29,29 +29,55 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Handler;
 import android.util.Log;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import fr.bmartel.android.notti.service.bluetooth.connection.BluetoothDeviceConn;
+import fr.bmartel.android.notti.service.bluetooth.connection.ConnectionRegistry;
+import fr.bmartel.android.notti.service.bluetooth.connection.ConnectionState;
+import fr.bmartel.android.notti.service.bluetooth.connection.DeviceObservers;
+import fr.bmartel.android.notti.service.bluetooth.connection.GattClientPool;
+import fr.bmartel.android.notti.service.bluetooth.listener.IConnectionStateListener;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRecord;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRegistry;
 import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceConn;
+import fr.bmartel.android.notti.service.bluetooth.events.ConnectionStateEvent;
 import fr.bmartel.android.notti.service.bluetooth.events.BluetoothEvents;
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
-import fr.bmartel.android.notti.service.utils.ManualResetEvent;
+import fr.bmartel.android.notti.service.bluetooth.listener.IScanListener;
+import fr.bmartel.android.notti.service.bluetooth.notti.NottiDevice;
+import fr.bmartel.android.notti.service.bluetooth.scan.BatchedBleScanner;
+import fr.bmartel.android.notti.service.bluetooth.scan.IBleScanner;
+import fr.bmartel.android.notti.service.bluetooth.scan.LegacyBleScanner;
+import fr.bmartel.android.notti.service.bluetooth.scan.ScanScheduler;
+import fr.bmartel.android.notti.service.bluetooth.notification.NotificationPipeline;
+import fr.bmartel.android.notti.service.bluetooth.record.GattRecord;
+import fr.bmartel.android.notti.service.bluetooth.record.GattRecorder;
+import fr.bmartel.android.notti.service.stream.IValueSource;
+import fr.bmartel.android.notti.service.stream.Stream;
+import fr.bmartel.android.notti.service.stream.StreamSource;
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
 
 
 /**
@@ -92,27 +118,97 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
     ThreadPoolExecutor gattThreadPool = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE,
             KEEP_ALIVE_TIME, KEEP_ALIVE_TIME_UNIT, gattWorkingQueue);
 
+    /**
+     * pending gatt operations ordered by priority class
+     */
+    private GattScheduler gattScheduler = new GattScheduler();
+
+    /**
+     * gatt operation in flight by device handle (only accessed from gatt worker thread)
+     */
+    private GattTask[] inFlightList = new GattTask[0];
+
+    /**
+     * timer wheel resolution in ms
+     */
+    private final static int TIMER_TICK = 50;
+
+    /**
+     * number of buckets in timer wheel
+     */
+    private final static int TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * timer shared by gatt operation timeouts, connection timeouts, reconnection backoff and scan window
+     */
+    private HashedWheelTimer timer = new HashedWheelTimer("gatt-timer", TIMER_TICK, TIMER_WHEEL_SIZE);
+
+    /**
+     * issue pending operations of all devices having no operation in flight, without waiting for their completion
+     * <p/>
+     * runs on gatt worker thread. Cancelled and obsolete operations are skipped without being sent to the device
+     */
+    private Runnable gattDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            GattTask task;
+            while ((task = gattScheduler.poll()) != null) {
+
+                if (task.isStale(System.currentTimeMillis())) {
+                    Log.v(TAG, "skipping stale gatt operation on " + task.getAddress());
+                    gattScheduler.release(task.getHandle());
+                    task.notifyFailure();
+                    continue;
+                }
+                //writes packed into this one may have been cancelled while pending
+                task.repack();
+                setInFlight(task.getHandle(), task);
+                timer.schedule(task, BT_TIMEOUT);
+
+                if (!task.issue()) {
+                    Log.e(TAG, "gatt operation rejected for " + task.getAddress());
+                    complete(task, BluetoothGatt.GATT_FAILURE);
+                }
+            }
+        }
+    };
+
     /**
      * timeout for waiting for response frame from the device
      */
     private final static int BT_TIMEOUT = 2000;
 
+    /**
+     * default lifetime of frame operations : a frame still pending after that delay is obsolete
+     */
+    private final static int FRAME_LIFETIME = BT_TIMEOUT;
+
     /**
      * set bluetooth scan period
      */
     private final int SCAN_PERIOD = 30000;
 
     /**
-     * list of bluetooth connection by address
+     * bluetooth connections by address and by handle
      */
-    private HashMap<String, IBluetoothDeviceConn> bluetoothConnectionList = new HashMap<>();
+    private ConnectionRegistry connectionRegistry = new ConnectionRegistry();
 
-    private HashMap<String, BluetoothDevice> scanningList = new HashMap<>();
+    /**
+     * tracking of opened gatt clients
+     */
+    private GattClientPool clientPool = new GattClientPool(connectionRegistry, timer, GattClientPool.DEFAULT_MAX_CLIENTS);
 
     /**
-     * event manager used to block / release process
+     * notification delivery off the gatt callback threads
      */
-    private ManualResetEvent eventManager = new ManualResetEvent(false);
+    private NotificationPipeline notificationPipeline = new NotificationPipeline();
+
+    /**
+     * characteristic listeners and notification streams by device address
+     */
+    private ConcurrentHashMap<String, DeviceObservers> observerList = new ConcurrentHashMap<>();
+
+    private ConcurrentHashMap<String, BluetoothDevice> scanningList = new ConcurrentHashMap<>();
 
     /**
      * Bluetooth adapter
@@ -120,70 +216,392 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
     private BluetoothAdapter mBluetoothAdapter = null;
 
     /**
-     * message handler
+     * set while a user scan is running (user thread, timer thread and scan callbacks)
+     */
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+
+    /**
+     * LE scanner (batched scanner on API 21+, legacy scan otherwise)
      */
-    private Handler mHandler = null;
+    private IBleScanner scanner = null;
 
     /**
-     * set bluetooth scan
+     * duty-cycled background scan
      */
-    private volatile boolean scanning = false;
+    private ScanScheduler scanScheduler = null;
+
+    /**
+     * delay after last gatt operation during which link is considered busy
+     */
+    private final static int LINK_IDLE_DELAY = 1000;
+
+    private volatile long lastLinkActivity = 0;
 
     /**
-     * Callback for Bluetooth adapter
      * This will be called when a bluetooth device has been discovered
      */
-    private BluetoothAdapter.LeScanCallback scanCallback = null;
+    private IScanListener scanListener = new IScanListener() {
+
+        @Override
+        public void onNewDeviceFound(BluetoothDevice device) {
+
+            scanResultStream.emit(device);
+
+            IBluetoothDeviceConn conn = device.getAddress() != null ? connectionRegistry.get(device.getAddress()) : null;
+
+            if (conn != null && conn.getState() == ConnectionState.STATE_IDLE) {
+                //known device is back in range
+                connect(device.getAddress());
+            }
+
+            if (device.getAddress() != null &&
+                    device.getName() != null &&
+                    scanningList.putIfAbsent(device.getAddress(), device) == null) {
+
+                try {
+                    JSONObject object = new JSONObject();
+                    object.put("address", device.getAddress());
+                    object.put("deviceName", device.getName());
+
+                    ArrayList<String> deviceInfo = new ArrayList<>();
+                    deviceInfo.add(object.toString());
+
+                    broadcastUpdateStringList(BluetoothEvents.BT_EVENT_DEVICE_DISCOVERED, deviceInfo);
+
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public void onScanStart() {
+            broadcastUpdate(BluetoothEvents.BT_EVENT_SCAN_START);
+        }
+
+        @Override
+        public void onScanEnd() {
+            broadcastUpdate(BluetoothEvents.BT_EVENT_SCAN_END);
+
+            Map<String, BluetoothDevice> result = getScanningList();
+            for (GattFuture<Map<String, BluetoothDevice>> future : scanFutureList) {
+                scanFutureList.remove(future);
+                future.complete(result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            if (scanning.get()) {
+                stopScan();
+            } else {
+                scanScheduler.onWindowFailed();
+            }
+        }
+    };
+
+    /**
+     * devices found during scans
+     */
+    private StreamSource<BluetoothDevice> scanResultStream = new StreamSource<>();
+
+    /**
+     * connection state transitions of all devices
+     */
+    private StreamSource<ConnectionStateEvent> connectionStateStream = new StreamSource<>();
+
+    private IConnectionStateListener connectionStateListener = new IConnectionStateListener() {
+        @Override
+        public void onStateChanged(IBluetoothDeviceConn conn, int oldState, int newState) {
+            if (connectionStateStream.hasSubscribers()) {
+                connectionStateStream.emit(new ConnectionStateEvent(conn.getAddress(), oldState, newState));
+            }
+        }
+    };
+
+    /**
+     * futures completed at end of current scan
+     */
+    private CopyOnWriteArrayList<GattFuture<Map<String, BluetoothDevice>>> scanFutureList = new CopyOnWriteArrayList<>();
 
     private Context context = null;
 
+    /**
+     * end of scan window
+     */
+    private HashedWheelTimer.Timeout scanTimeout = new HashedWheelTimer.Timeout() {
+        @SuppressLint("NewApi")
+        @Override
+        public void onTimeout() {
+            if (scanning.compareAndSet(true, false)) {
+                //notify end of scan
+                scanner.stop();
+                scanListener.onScanEnd();
+            }
+        }
+    };
+
+    /**
+     * gatt session recorder (null when not recording)
+     */
+    private volatile GattRecorder recorder = null;
+
+    /**
+     * bluetooth transport initialized
+     */
+    private volatile boolean initialized = false;
+
+    /**
+     * devices already connected, reconnected directly on startup
+     */
+    private final DeviceRegistry deviceRegistry;
+
+    /**
+     * delay before device registry changes are written to storage
+     */
+    private final static int REGISTRY_FLUSH_DELAY = 5000;
+
+    private final AtomicBoolean registryFlushScheduled = new AtomicBoolean(false);
+
+    /**
+     * write device registry changes from timer thread, never from gatt callback threads
+     */
+    private HashedWheelTimer.Timeout registryFlush = new HashedWheelTimer.Timeout() {
+        @Override
+        public void onTimeout() {
+            registryFlushScheduled.set(false);
+            deviceRegistry.flush();
+        }
+    };
+
+    /**
+     * persist devices that have been fully initialized and their link statistics
+     */
+    private IConnectionStateListener knownDeviceListener = new IConnectionStateListener() {
+        @Override
+        public void onStateChanged(IBluetoothDeviceConn conn, int oldState, int newState) {
+
+            if (newState == ConnectionState.STATE_READY || oldState == ConnectionState.STATE_READY) {
+
+                DeviceRecord record = deviceRegistry.get(conn.getAddress());
+                if (record == null) {
+                    record = new DeviceRecord(conn.getAddress());
+                }
+                if (newState == ConnectionState.STATE_READY) {
+                    if (conn.getDeviceName() != null) {
+                        record.setDeviceName(conn.getDeviceName());
+                    }
+                    record.setConnectCount(record.getConnectCount() + 1);
+                    record.setLastConnectionTime(System.currentTimeMillis());
+                    //MTU is saved from onMtuChanged : only keep a value negotiated before READY
+                    if (conn.getMtu() != BluetoothConst.DEFAULT_MTU) {
+                        record.setMtu(conn.getMtu());
+                    }
+                } else {
+                    record.setDisconnectCount(record.getDisconnectCount() + 1);
+                }
+                //called on gatt callback threads : memory only
+                deviceRegistry.add(record);
+                scheduleRegistryFlush();
+            }
+        }
+    };
+
     /**
      * Build bluetooth manager
+     *
+     * @param context        android context
+     * @param deviceRegistry persistent device registry
      */
-    public BluetoothCustomManager(Context context) {
+    public BluetoothCustomManager(Context context, DeviceRegistry deviceRegistry) {
         this.context = context;
+        this.deviceRegistry = deviceRegistry;
     }
 
+    /**
+     * check if bluetooth transport has been initialized. Until then, manager only serves cached state (device
+     * registry, connection list)
+     *
+     * @return
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * initialize bluetooth transport on first use : adapter, timer thread, scanners. Executor threads are created on
+     * their first task
+     */
+    private void ensureInit() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    init();
+                    initialized = true;
+                }
+            }
+        }
+    }
 
     @SuppressLint("NewApi")
-    public void init(Context context) {
+    private void init() {
+
+        Log.i(TAG, "initializing bluetooth transport");
 
         // Initializes Bluetooth adapter.
         final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
 
         mBluetoothAdapter = bluetoothManager.getAdapter();
 
-        //init message handler
-        mHandler = null;
-        mHandler = new Handler();
+        timer.start();
+        clientPool.start();
 
-        scanCallback = new BluetoothAdapter.LeScanCallback() {
+        if (BatchedBleScanner.isSupported()) {
+            //filtering and batching are done in controller when supported
+            scanner = new BatchedBleScanner(mBluetoothAdapter, UUID.fromString(NottiDevice.SERVICE_UUID), scanListener);
+        } else {
+            scanner = new LegacyBleScanner(mBluetoothAdapter, scanListener);
+        }
+
+        scanScheduler = new ScanScheduler(timer, new ScanScheduler.IScanHost() {
 
             @Override
-            public void onLeScan(BluetoothDevice device, int rssi, final byte[] scanRecord) {
+            public boolean startScanWindow() {
+                //manual scan already running
+                return !scanning.get() && scanner.start(true);
+            }
 
-                if (device.getAddress() != null &&
-                        device.getName() != null &&
-                        !scanningList.containsKey(device.getAddress())) {
+            @Override
+            public void stopScanWindow() {
+                //no window is active during a user scan : user scan suspends active window before starting
+                scanner.stop();
+            }
 
-                    scanningList.put(device.getAddress(), device);
+            @Override
+            public boolean isLinkBusy() {
+                return gattScheduler.size() > 0 || (System.currentTimeMillis() - lastLinkActivity) < LINK_IDLE_DELAY;
+            }
 
-                    try {
-                        JSONObject object = new JSONObject();
-                        object.put("address", device.getAddress());
-                        object.put("deviceName", device.getName());
+            @Override
+            public boolean isKnownDeviceMissing() {
+                //only idle lamps are reconnected when found by scan : connecting ones (pending autoConnect) are
+                //already handled by the controller
+                List<IBluetoothDeviceConn> connections = connectionRegistry.snapshot();
+                for (int i = 0; i < connections.size(); i++) {
+                    IBluetoothDeviceConn conn = connections.get(i);
+                    if (conn.getState() == ConnectionState.STATE_IDLE && deviceRegistry.contains(conn.getAddress())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+    }
 
-                        ArrayList<String> deviceInfo = new ArrayList<>();
-                        deviceInfo.add(object.toString());
+    /**
+     * start duty-cycled background scan
+     *
+     * @param onWindow  scan window duration in ms
+     * @param offPeriod delay between two windows in ms
+     */
+    public void startBackgroundScan(int onWindow, int offPeriod) {
+        ensureInit();
+        scanScheduler.setDutyCycle(onWindow, offPeriod);
+        scanScheduler.start();
+    }
 
-                        broadcastUpdateStringList(BluetoothEvents.BT_EVENT_DEVICE_DISCOVERED, deviceInfo);
+    /**
+     * connect directly to all known devices without scanning. Connections are background (autoConnect) connections
+     * completed by the controller as soon as each device is in range
+     *
+     * @return number of connections initiated
+     */
+    public int connectKnownDevices() {
 
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                }
+        if (deviceRegistry.size() == 0) {
+            return 0;
+        }
+        ensureInit();
+
+        int count = 0;
+
+        List<DeviceRecord> records = deviceRegistry.getAll();
+
+        for (int i = 0; i < records.size(); i++) {
+
+            String address = records.get(i).getAddress();
+
+            IBluetoothDeviceConn conn = connectionRegistry.get(address);
+
+            if ((conn == null || conn.getState() == ConnectionState.STATE_IDLE) && connect(address, true)) {
+                count++;
             }
-        };
+        }
+        Log.i(TAG, count + " known device connection(s) initiated");
+        return count;
+    }
+
+    /**
+     * forget a known device : it wont be reconnected on startup anymore
+     *
+     * @param address device address
+     */
+    public void forgetDevice(String address) {
+        deviceRegistry.remove(address);
+    }
+
+    @Override
+    public DeviceRegistry getDeviceRegistry() {
+        return deviceRegistry;
+    }
+
+    @Override
+    public void scheduleRegistryFlush() {
+        if (registryFlushScheduled.compareAndSet(false, true)) {
+            timer.schedule(registryFlush, REGISTRY_FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * release bluetooth transport : scans are stopped, connections and gatt clients closed, timer and worker threads
+     * stopped. Manager must not be used afterwards
+     */
+    public void close() {
+
+        if (initialized) {
+            scanScheduler.stop();
+            stopScan();
+        }
+        disconnectAll();
+        //clients not owned by a connection anymore
+        clientPool.stop();
+        stopRecording();
+        timer.stop();
+
+        //callbacks of clients being closed may still be received
+        gattThreadPool.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        gattThreadPool.shutdown();
+        notificationPipeline.close();
+    }
+
+    public void stopBackgroundScan() {
+        if (initialized) {
+            scanScheduler.stop();
+        }
+    }
+
+    /**
+     * set maximum number of gatt clients opened at the same time (background connections of known devices included)
+     *
+     * @param maxClients maximum number of gatt clients
+     */
+    public void setMaxGattClients(int maxClients) {
+        clientPool.setMaxClients(maxClients);
+    }
+
+    public ScanScheduler getScanScheduler() {
+        ensureInit();
+        return scanScheduler;
     }
 
     /**
@@ -199,90 +617,239 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
     @SuppressLint("NewApi")
     public boolean scanLeDevice() {
 
-        if (!scanning) {
+        ensureInit();
 
-            broadcastUpdate(BluetoothEvents.BT_EVENT_SCAN_START);
+        if (scanning.compareAndSet(false, true)) {
+
+            //manual scan takes over background scan window : no window can be started from now
+            scanScheduler.suspend();
+
+            if (!scanner.start(false)) {
+                Log.e(TAG, "scan couldnt be started");
+                scanning.set(false);
+                return false;
+            }
+            scanListener.onScanStart();
 
             // Stops scanning after a pre-defined scan period.
-            mHandler.postDelayed(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            if (scanning) {
-                                //notify end of scan
-                                broadcastUpdate(BluetoothEvents.BT_EVENT_SCAN_END);
-                                scanning = false;
-                                mBluetoothAdapter.stopLeScan(scanCallback);
-                            }
-                        }
-                    }, SCAN_PERIOD);
-
-            scanning = true;
-
-            return mBluetoothAdapter.startLeScan(scanCallback);
+            timer.schedule(scanTimeout, SCAN_PERIOD);
+
+            return true;
         }
         return false;
     }
 
+    /**
+     * Scan new Bluetooth device
+     *
+     * @return future completed with discovered devices at end of scan (joins current scan if a scan is running)
+     */
+    public GattFuture<Map<String, BluetoothDevice>> scanLeDeviceAsync() {
+
+        GattFuture<Map<String, BluetoothDevice>> future = new GattFuture<>();
+        scanFutureList.add(future);
+
+        //scan may also have been started concurrently
+        if (!scanning.get() && !scanLeDevice() && !scanning.get()) {
+            scanFutureList.remove(future);
+            future.fail();
+        }
+        return future;
+    }
+
+    /**
+     * Connect to device's GATT server
+     *
+     * @param address device address
+     * @return future completed when device is fully initialized, failed if connection is lost or cant be initiated
+     */
+    public GattFuture<IBluetoothDeviceConn> connectAsync(String address) {
+
+        if (!connect(address)) {
+
+            IBluetoothDeviceConn conn = connectionRegistry.get(address);
+
+            //connection already in progress or established
+            if (conn == null || conn.getState() == ConnectionState.STATE_IDLE) {
+                return GattFuture.failed();
+            }
+        }
+        return whenReady(address);
+    }
+
+    /**
+     * wait for a device already being connected to be fully initialized
+     *
+     * @param address device address
+     * @return future completed when device is ready, failed if device is not connecting or connection is lost
+     */
+    public GattFuture<IBluetoothDeviceConn> whenReady(String address) {
+
+        final IBluetoothDeviceConn conn = connectionRegistry.get(address);
+
+        if (conn == null) {
+            return GattFuture.failed();
+        }
+        final GattFuture<IBluetoothDeviceConn> future = new GattFuture<>();
+
+        IConnectionStateListener listener = new IConnectionStateListener() {
+            @Override
+            public void onStateChanged(IBluetoothDeviceConn device, int oldState, int newState) {
+                if (newState == ConnectionState.STATE_READY) {
+                    device.removeStateListener(this);
+                    future.complete(device);
+                } else if (newState == ConnectionState.STATE_IDLE || newState == ConnectionState.STATE_DISCONNECTING) {
+                    device.removeStateListener(this);
+                    future.fail();
+                }
+            }
+        };
+        conn.addStateListener(listener);
+
+        //state may have changed before listener registration
+        int state = conn.getState();
+        if (state == ConnectionState.STATE_READY) {
+            conn.removeStateListener(listener);
+            future.complete(conn);
+        } else if (state == ConnectionState.STATE_IDLE || state == ConnectionState.STATE_DISCONNECTING) {
+            conn.removeStateListener(listener);
+            future.fail();
+        }
+        return future;
+    }
+
     /**
      * Stop Bluetooth LE scanning
      */
     @SuppressLint("NewApi")
     public void stopScan() {
-        mHandler.removeCallbacksAndMessages(null);
-        scanning = false;
-        mBluetoothAdapter.stopLeScan(scanCallback);
-        //notify end of scan
-        broadcastUpdate(BluetoothEvents.BT_EVENT_SCAN_END);
+        if (!initialized) {
+            return;
+        }
+        timer.cancel(scanTimeout);
+        if (scanning.compareAndSet(true, false)) {
+            scanner.stop();
+            //notify end of scan
+            scanListener.onScanEnd();
+        }
     }
 
     public boolean isScanning() {
-        return scanning;
+        return scanning.get();
     }
 
     /**
      * Connect to device's GATT server
      */
-    @SuppressLint("NewApi")
+    @Override
     public boolean connect(String address) {
+        return connect(address, false);
+    }
+
+    /**
+     * Connect to device's GATT server
+     *
+     * @param address     device address
+     * @param autoConnect true to let the controller connect whenever device is in range (no connection timeout)
+     */
+    @SuppressLint("NewApi")
+    public boolean connect(final String address, boolean autoConnect) {
+
+        ensureInit();
         if (mBluetoothAdapter == null || address == null) {
             Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
             return false;
         }
 
-        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-
-        boolean alreadyInList = false;
+        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
 
-        if (bluetoothConnectionList.containsKey(address)) {
-            alreadyInList = true;
+        if (connectionRegistry.contains(address)) {
+            Log.i(TAG, "reusing same connection");
+        } else {
+            Log.i(TAG, "new connection");
         }
 
-        if (alreadyInList) {
+        BluetoothDeviceConn conn = (BluetoothDeviceConn) connectionRegistry.getOrCreate(address, new ConnectionRegistry.IConnectionFactory() {
+            @Override
+            public IBluetoothDeviceConn create(int handle) {
+                BluetoothDeviceConn created = new BluetoothDeviceConn(handle, address, device.getName(), BluetoothCustomManager.this);
+                created.addStateListener(knownDeviceListener);
+                created.addStateListener(connectionStateListener);
+                return created;
+            }
+        });
 
-            Log.i(TAG, "reusing same connection");
+        //connection already in progress or established must not take a gatt client slot
+        if (!conn.startConnecting(!autoConnect)) {
+            Log.w(TAG, "connection to " + address + " rejected in state " + ConnectionState.toString(conn.getState()));
+            return false;
+        }
 
-            BluetoothDeviceConn conn = (BluetoothDeviceConn) bluetoothConnectionList.get(address);
+        if (!clientPool.tryAcquire(address, autoConnect)) {
+            conn.close();
+            return false;
+        }
 
-            conn.setGatt(device.connectGatt(context, false, conn.getGattCallback()));
+        //connect to gatt server on the device
+        BluetoothGatt gatt = device.connectGatt(context, autoConnect, conn.getGattCallback());
 
-        } else {
+        if (gatt == null) {
+            Log.e(TAG, "gatt client creation failed for " + address);
+            clientPool.cancelAcquire();
+            conn.close();
+            return false;
+        }
+        //gatt is owned by connection before leak check can see it
+        conn.setGatt(gatt);
+        clientPool.register(address, gatt, autoConnect);
 
-            BluetoothDeviceConn conn = new BluetoothDeviceConn(address, device.getName(), this);
+        return true;
+    }
 
-            bluetoothConnectionList.put(address, conn);
+    /**
+     * start recording gatt operations and callbacks into a session file
+     *
+     * @param file session file
+     * @return true if recording has started
+     */
+    public boolean startRecording(File file) {
+        stopRecording();
+        try {
+            recorder = new GattRecorder(file);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "cant start gatt recording", e);
+        }
+        return false;
+    }
 
-            Log.i(TAG, "new connection");
-            //connect to gatt server on the device
-            conn.setGatt(device.connectGatt(context, false, conn.getGattCallback()));
+    /**
+     * stop current gatt recording
+     */
+    public void stopRecording() {
+        GattRecorder current = recorder;
+        recorder = null;
+        if (current != null) {
+            current.close();
         }
+    }
 
-        return true;
+    @Override
+    public HashedWheelTimer getTimer() {
+        return timer;
     }
 
     @Override
-    public ManualResetEvent getEventManager() {
-        return eventManager;
+    public GattRecorder getRecorder() {
+        return recorder;
+    }
+
+    @SuppressLint("NewApi")
+    private void record(byte type, BluetoothGatt gatt, String uid, int status, byte[] value) {
+        GattRecorder current = recorder;
+        if (current != null) {
+            current.record(type, gatt.getDevice().getAddress(), uid, status, value);
+        }
     }
 
     /**
@@ -310,114 +877,379 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
         context.sendBroadcast(intent);
     }
 
+    /**
+     * schedule a gatt operation according to its priority class
+     *
+     * @param task gatt operation
+     */
+    private IGattOperation schedule(GattTask task) {
+
+        IBluetoothDeviceConn conn = connectionRegistry.get(task.getAddress());
+
+        if (conn == null) {
+            Log.e(TAG, "no connection registered for " + task.getAddress());
+            task.cancel();
+            task.notifyFailure();
+            return task;
+        }
+        task.setHandle(conn.getHandle());
+
+        lastLinkActivity = System.currentTimeMillis();
+        scanScheduler.suspend();
+
+        //a packed write keeps its own handle : cancelling it does not cancel the write carrying it
+        gattScheduler.add(task, conn.getMtu() - BluetoothConst.ATT_HEADER_SIZE);
+        gattThreadPool.execute(gattDispatcher);
+        return task;
+    }
+
+    /**
+     * complete operation in flight and free its device for next operation (gatt worker thread only)
+     *
+     * @param task   operation in flight
+     * @param status gatt status
+     */
+    private void complete(GattTask task, int status) {
+        timer.cancel(task);
+        setInFlight(task.getHandle(), null);
+        gattScheduler.release(task.getHandle());
+        task.onResponse(status);
+    }
+
+    private GattTask getInFlight(int handle) {
+        if (handle >= 0 && handle < inFlightList.length) {
+            return inFlightList[handle];
+        }
+        return null;
+    }
+
+    private void setInFlight(int handle, GattTask task) {
+        if (handle >= inFlightList.length) {
+            inFlightList = Arrays.copyOf(inFlightList, Math.max(handle + 1, connectionRegistry.getHandleCount()));
+        }
+        inFlightList[handle] = task;
+    }
+
+    /**
+     * called from gatt callback when an operation for a device has completed
+     *
+     * @param handle device handle
+     * @param type   operation type (see GattOperationType)
+     * @param uid    characteristic uid
+     * @param status gatt status
+     */
+    @Override
+    public void onOperationComplete(final int handle, final int type, final UUID uid, final int status) {
+
+        gattThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                GattTask task = getInFlight(handle);
+                if (task != null) {
+                    if (!task.matches(type, uid)) {
+                        //late callback of an operation that has timed out : must not complete the next one
+                        Log.w(TAG, "dropping gatt callback for " + uid + " on " + task.getAddress());
+                        return;
+                    }
+                    complete(task, status);
+                    gattDispatcher.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * called from timer thread when no callback has been received for an operation in flight
+     *
+     * @param task operation in flight
+     */
+    private void onOperationTimeout(final GattTask task) {
+
+        gattThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (getInFlight(task.getHandle()) == task) {
+                    Log.w(TAG, "gatt operation timeout on " + task.getAddress());
+                    record(GattRecord.OP_TIMEOUT, task.getGatt(), task.getDescriptorCharacUid().isEmpty() ?
+                            task.getUid() : task.getDescriptorCharacUid(), 0, null);
+                    complete(task, BluetoothGatt.GATT_FAILURE);
+                    gattDispatcher.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * cancel all pending operations for a device and release the operation in flight if it belongs to this device
+     *
+     * @param handle device handle
+     */
+    @Override
+    public void cancelOperations(final int handle) {
+
+        ArrayList<GattTask> removed = gattScheduler.purge(handle);
+
+        for (int i = 0; i < removed.size(); i++) {
+            removed.get(i).cancelAll();
+            removed.get(i).notifyFailure();
+        }
+        if (removed.size() > 0) {
+            Log.i(TAG, "cancelled " + removed.size() + " pending operations for " + removed.get(0).getAddress());
+        }
+
+        gattThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                GattTask task = getInFlight(handle);
+                if (task != null) {
+                    task.cancelAll();
+                    complete(task, BluetoothGatt.GATT_FAILURE);
+                    gattDispatcher.run();
+                }
+            }
+        });
+    }
+
+    @Override
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt, IPushListener listener) {
+        return writeCharacteristic(characUid, value, gatt, GattPriority.PRIORITY_FRAME, listener);
+    }
+
+    @Override
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt, int priority, IPushListener listener) {
+
+        long deadline = 0;
+        if (priority == GattPriority.PRIORITY_FRAME) {
+            deadline = System.currentTimeMillis() + FRAME_LIFETIME;
+        }
+        return writeCharacteristic(characUid, value, gatt, priority, deadline, listener);
+    }
+
+    @Override
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt, int priority, long deadline, IPushListener listener) {
+        return writeCharacteristic(characUid, value, gatt, priority, deadline, true, listener);
+    }
+
     @SuppressLint("NewApi")
     @Override
-    public void writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt, IPushListener listener) {
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt, int priority, long deadline, boolean packable, IPushListener listener) {
 
         if (gatt != null && characUid != null && value != null) {
 
-            gattThreadPool.execute(new GattTask(gatt, characUid, value, listener) {
+            GattTask task = new DispatchedTask(gatt, GattOperationType.OP_WRITE, characUid, value, priority, listener) {
                 @Override
-                public void run() {
+                public boolean issue() {
                     BluetoothGattCharacteristic charac = GattUtils.getCharacteristic(getGatt().getServices(), getUid());
-                    charac.setValue(getValue());
-
-                    getGatt().writeCharacteristic(charac);
-
-                    long startTime = System.currentTimeMillis();
-                    eventManager.reset();
-                    try {
-                        eventManager.waitOne(BT_TIMEOUT);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    long endTime = System.currentTimeMillis();
-
-                    if ((endTime - startTime) >= BT_TIMEOUT) {
-                        if (getListener() != null) {
-                            getListener().onPushFailure();
-                        }
-                    } else {
-                        if (getListener() != null) {
-                            getListener().onPushSuccess();
-                        }
+                    if (charac == null) {
+                        return false;
                     }
-                }
-            });
-            gattThreadPool.execute(new Runnable() {
-                @Override
-                public void run() {
+                    charac.setValue(getValue());
 
+                    record(GattRecord.OP_WRITE, getGatt(), getUid(), 0, getValue());
 
+                    return getGatt().writeCharacteristic(charac);
                 }
-            });
+            };
+            task.setDeadline(deadline);
+            task.setPackable(packable);
+            return schedule(task);
         } else
             Log.e(TAG, "Error int writeCharacteristic() input argument NULL");
+        return null;
     }
 
     @SuppressLint("NewApi")
     @Override
-    public void readCharacteristic(String characUid, BluetoothGatt gatt) {
+    public IGattOperation readCharacteristic(String characUid, BluetoothGatt gatt) {
+        return readCharacteristic(characUid, gatt, null);
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public IGattOperation readCharacteristic(String characUid, BluetoothGatt gatt, IPushListener listener) {
 
         if (gatt != null && characUid != null) {
 
-            gattThreadPool.execute(new GattTask(gatt, characUid, null, null) {
+            return schedule(new DispatchedTask(gatt, GattOperationType.OP_READ, characUid, null, GattPriority.PRIORITY_BACKGROUND, listener) {
                 @Override
-                public void run() {
+                public boolean issue() {
 
                     BluetoothGattCharacteristic charac = GattUtils.getCharacteristic(getGatt().getServices(), getUid());
-
-                    getGatt().readCharacteristic(charac);
-                    eventManager.reset();
-                    try {
-                        eventManager.waitOne(BT_TIMEOUT);
-                    } catch (Exception e) {
-                        e.printStackTrace();
+                    if (charac == null) {
+                        return false;
                     }
+
+                    record(GattRecord.OP_READ, getGatt(), getUid(), 0, null);
+
+                    return getGatt().readCharacteristic(charac);
                 }
             });
         } else
-            Log.e(TAG, "Error int writeCharacteristic() input argument NULL");
+            Log.e(TAG, "Error int readCharacteristic() input argument NULL");
+        return null;
     }
 
     @SuppressLint("NewApi")
     @Override
-    public void writeDescriptor(String descriptorUid, BluetoothGatt gatt, byte[] value, String serviceUid, String characUid) {
+    public IGattOperation writeDescriptor(String descriptorUid, BluetoothGatt gatt, byte[] value, String serviceUid, String characUid) {
 
         if (gatt != null && descriptorUid != null) {
 
-            gattThreadPool.execute(new GattTask(gatt, descriptorUid, value, serviceUid, characUid) {
+            return schedule(new DispatchedTask(gatt, descriptorUid, value, serviceUid, characUid) {
                 @Override
-                public void run() {
+                public boolean issue() {
 
-                    BluetoothGattDescriptor descriptor = getGatt().getService(UUID.fromString(getDescriptorServiceUid()))
-                            .getCharacteristic(UUID.fromString(getDescriptorCharacUid())).getDescriptor(UUID.fromString(getUid()));
+                    BluetoothGattService service = getGatt().getService(UUID.fromString(getDescriptorServiceUid()));
+                    if (service == null || service.getCharacteristic(UUID.fromString(getDescriptorCharacUid())) == null) {
+                        return false;
+                    }
+                    BluetoothGattDescriptor descriptor = service.getCharacteristic(UUID.fromString(getDescriptorCharacUid()))
+                            .getDescriptor(UUID.fromString(getUid()));
+                    if (descriptor == null) {
+                        return false;
+                    }
 
                     descriptor.setValue(getValue());
 
-                    getGatt().writeDescriptor(descriptor);
-                    eventManager.reset();
-                    try {
-                        eventManager.waitOne(BT_TIMEOUT);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    record(GattRecord.OP_WRITE_DESCRIPTOR, getGatt(), getDescriptorCharacUid(), 0, getValue());
 
+                    return getGatt().writeDescriptor(descriptor);
                 }
             });
-            gattThreadPool.execute(new Runnable() {
-                @Override
-                public void run() {
+        } else
+            Log.e(TAG, "Error int writeCharacteristic() input argument NULL");
+        return null;
+    }
+
+    @SuppressLint("NewApi")
+    @Override
+    public IGattOperation requestMtu(BluetoothGatt gatt, final int mtu, IPushListener listener) {
+
+        if (gatt != null) {
 
+            return schedule(new DispatchedTask(gatt, GattOperationType.OP_MTU, "", null, GattPriority.PRIORITY_INIT, listener) {
+                @Override
+                public boolean issue() {
+                    return getGatt().requestMtu(mtu);
                 }
             });
         } else
-            Log.e(TAG, "Error int writeCharacteristic() input argument NULL");
+            Log.e(TAG, "Error int requestMtu() input argument NULL");
+        return null;
     }
 
+    /**
+     * read-only live view of connections by address
+     *
+     * @return
+     */
     @Override
-    public HashMap<String, IBluetoothDeviceConn> getConnectionList() {
-        return bluetoothConnectionList;
+    public Map<String, IBluetoothDeviceConn> getConnectionList() {
+        return connectionRegistry.asMap();
+    }
+
+    @Override
+    public ConnectionRegistry getConnectionRegistry() {
+        return connectionRegistry;
+    }
+
+    @Override
+    public GattClientPool getClientPool() {
+        return clientPool;
+    }
+
+    @Override
+    public void registerFramePacker(String characUid, IFramePacker packer) {
+        gattScheduler.setFramePacker(characUid, packer);
+    }
+
+    /**
+     * number of writes packed into a pending write
+     *
+     * @return
+     */
+    public long getPackedWriteCount() {
+        return gattScheduler.getPackedCount();
+    }
+
+    /**
+     * snapshot of manager counters
+     *
+     * @return
+     */
+    public BluetoothMetrics getMetrics() {
+        return new BluetoothMetrics(connectionRegistry.asMap().size(),
+                clientPool.getOpenCount(),
+                clientPool.getLeakCount(),
+                clientPool.getRejectedCount(),
+                gattScheduler.getPackedCount(),
+                timer.getPendingCount());
+    }
+
+    /**
+     * stream of manager counters
+     *
+     * @param period polling period in ms
+     * @return
+     */
+    public Stream<BluetoothMetrics> getMetricsStream(long period) {
+        //metrics dont need bluetooth transport, only the timer
+        timer.start();
+        return Stream.poll(new IValueSource<BluetoothMetrics>() {
+            @Override
+            public BluetoothMetrics get() {
+                return getMetrics();
+            }
+        }, period, timer);
+    }
+
+    /**
+     * sample a stream on manager timer
+     *
+     * @param stream stream to sample
+     * @param period sampling period in ms
+     * @return sampled stream
+     */
+    public <T> Stream<T> sample(Stream<T> stream, long period) {
+        //sampling doesnt need bluetooth transport, only the timer
+        timer.start();
+        return stream.sample(period, timer);
+    }
+
+    /**
+     * stream of devices found during scans (a device may be reported several times)
+     *
+     * @return
+     */
+    public Stream<BluetoothDevice> getScanResultStream() {
+        return scanResultStream;
+    }
+
+    /**
+     * stream of connection state transitions of all devices
+     *
+     * @return
+     */
+    public Stream<ConnectionStateEvent> getConnectionStateStream() {
+        return connectionStateStream;
+    }
+
+    @Override
+    public NotificationPipeline getNotificationPipeline() {
+        return notificationPipeline;
+    }
+
+    @Override
+    public DeviceObservers getObservers(String address) {
+        DeviceObservers observers = observerList.get(address);
+        if (observers == null) {
+            DeviceObservers created = new DeviceObservers(address);
+            observers = observerList.putIfAbsent(address, created);
+            if (observers == null) {
+                observers = created;
+            }
+        }
+        return observers;
     }
 
     @SuppressLint("NewApi")
@@ -427,12 +1259,13 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
             return false;
         }
 
-        if (bluetoothConnectionList.containsKey(deviceAddress)) {
+        IBluetoothDeviceConn conn = connectionRegistry.get(deviceAddress);
 
-            if (bluetoothConnectionList.get(deviceAddress).getBluetoothGatt() != null) {
-                bluetoothConnectionList.get(deviceAddress).getBluetoothGatt().disconnect();
-                bluetoothConnectionList.get(deviceAddress).getBluetoothGatt().close();
-            }
+        if (conn != null) {
+
+            conn.disconnect();
+            conn.close();
+            connectionRegistry.remove(deviceAddress);
 
             return true;
         } else {
@@ -442,15 +1275,35 @@ public class BluetoothCustomManager implements IBluetoothCustomManager {
     }
 
     public void disconnectAll() {
-        Iterator it = getConnectionList().entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, IBluetoothDeviceConn> pair = (Map.Entry) it.next();
-            pair.getValue().disconnect();
+        List<IBluetoothDeviceConn> connections = connectionRegistry.snapshot();
+        for (int i = 0; i < connections.size(); i++) {
+            IBluetoothDeviceConn conn = connections.get(i);
+            conn.disconnect();
+            conn.close();
+            connectionRegistry.remove(conn.getAddress());
         }
     }
 
-    public HashMap<String, BluetoothDevice> getScanningList() {
-        return scanningList;
+    public Map<String, BluetoothDevice> getScanningList() {
+        return Collections.unmodifiableMap(scanningList);
     }
 
+    /**
+     * gatt operation whose timeout is handled by this manager
+     */
+    private abstract class DispatchedTask extends GattTask {
+
+        public DispatchedTask(BluetoothGatt gatt, String descriptorUid, byte[] descriptorVal, String serviceUid, String characUid) {
+            super(gatt, descriptorUid, descriptorVal, serviceUid, characUid);
+        }
+
+        public DispatchedTask(BluetoothGatt gatt, int type, String gattUid, byte[] value, int priority, IPushListener listener) {
+            super(gatt, type, gattUid, value, priority, listener);
+        }
+
+        @Override
+        public void onTimeout() {
+            onOperationTimeout(this);
+        }
+    }
 }
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth;
+
+/**
+ * Snapshot of bluetooth manager counters
+ *
+ * @author Bertrand Martel
+ */
+public class BluetoothMetrics {
+
+    private final long time;
+
+    private final int connectionCount;
+
+    private final int openClientCount;
+
+    private final long leakedClientCount;
+
+    private final long rejectedClientCount;
+
+    private final long packedWriteCount;
+
+    private final int pendingTimeoutCount;
+
+    public BluetoothMetrics(int connectionCount,
+                            int openClientCount,
+                            long leakedClientCount,
+                            long rejectedClientCount,
+                            long packedWriteCount,
+                            int pendingTimeoutCount) {
+        this.time = System.currentTimeMillis();
+        this.connectionCount = connectionCount;
+        this.openClientCount = openClientCount;
+        this.leakedClientCount = leakedClientCount;
+        this.rejectedClientCount = rejectedClientCount;
+        this.packedWriteCount = packedWriteCount;
+        this.pendingTimeoutCount = pendingTimeoutCount;
+    }
+
+    /**
+     * @return snapshot time in ms
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return number of known connections
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return number of opened gatt clients
+     */
+    public int getOpenClientCount() {
+        return openClientCount;
+    }
+
+    public long getLeakedClientCount() {
+        return leakedClientCount;
+    }
+
+    public long getRejectedClientCount() {
+        return rejectedClientCount;
+    }
+
+    /**
+     * @return number of writes packed into a pending write
+     */
+    public long getPackedWriteCount() {
+        return packedWriteCount;
+    }
+
+    /**
+     * @return number of scheduled timeouts
+     */
+    public int getPendingTimeoutCount() {
+        return pendingTimeoutCount;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import fr.bmartel.android.notti.service.bluetooth.listener.IFutureListener;
+
+/**
+ * Minimal future completed by a gatt callback
+ * <p/>
+ * Listeners are called on the thread completing the future, or immediately on the caller thread if future is
+ * already done. Cancelling the future cancels the underlying gatt operation.
+ *
+ * @author Bertrand Martel
+ */
+public class GattFuture<T> implements IGattOperation {
+
+    private final static int STATE_PENDING = 0;
+
+    private final static int STATE_SUCCESS = 1;
+
+    private final static int STATE_FAILURE = 2;
+
+    private int state = STATE_PENDING;
+
+    private boolean cancelled = false;
+
+    private T value = null;
+
+    private ArrayList<IFutureListener<T>> listenerList = null;
+
+    /**
+     * operation producing this future result (may be null)
+     */
+    private volatile IGattOperation operation = null;
+
+    /**
+     * build an already completed future
+     *
+     * @param value result
+     * @return
+     */
+    public static <T> GattFuture<T> completed(T value) {
+        GattFuture<T> future = new GattFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * build an already failed future
+     *
+     * @return
+     */
+    public static <T> GattFuture<T> failed() {
+        GattFuture<T> future = new GattFuture<>();
+        future.fail();
+        return future;
+    }
+
+    public void setOperation(IGattOperation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * complete future with a result
+     *
+     * @param value result
+     * @return false if future was already done
+     */
+    public boolean complete(T value) {
+        ArrayList<IFutureListener<T>> listeners;
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return false;
+            }
+            this.value = value;
+            state = STATE_SUCCESS;
+            listeners = listenerList;
+            listenerList = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onSuccess(value);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * complete future with a failure
+     *
+     * @return false if future was already done
+     */
+    public boolean fail() {
+        ArrayList<IFutureListener<T>> listeners;
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return false;
+            }
+            state = STATE_FAILURE;
+            listeners = listenerList;
+            listenerList = null;
+            notifyAll();
+        }
+        if (listeners != null) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onFailure();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * register a completion listener
+     *
+     * @param listener
+     */
+    public void addListener(IFutureListener<T> listener) {
+        int current;
+        T result;
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                if (listenerList == null) {
+                    listenerList = new ArrayList<>(2);
+                }
+                listenerList.add(listener);
+                return;
+            }
+            current = state;
+            result = value;
+        }
+        if (current == STATE_SUCCESS) {
+            listener.onSuccess(result);
+        } else {
+            listener.onFailure();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (state != STATE_PENDING) {
+                return;
+            }
+            cancelled = true;
+        }
+        IGattOperation op = operation;
+        if (op != null) {
+            op.cancel();
+        }
+        fail();
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    public synchronized boolean isSuccess() {
+        return state == STATE_SUCCESS;
+    }
+
+    /**
+     * wait for completion
+     *
+     * @param timeout maximum time to wait
+     * @param unit    timeout unit
+     * @return result or null if future failed or is not done before timeout
+     * @throws InterruptedException
+     */
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException {
+
+        long remaining = unit.toMillis(timeout);
+        long end = System.currentTimeMillis() + remaining;
+
+        while (state == STATE_PENDING && remaining > 0) {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        return value;
+    }
+
+    /**
+     * result if future completed successfully
+     *
+     * @return result or null
+     */
+    public synchronized T getNow() {
+        return value;
+    }
+}
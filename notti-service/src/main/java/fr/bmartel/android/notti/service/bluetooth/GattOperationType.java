@@ -0,0 +1,52 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth;
+
+/**
+ * Types of gatt operations, used to match a gatt callback with the operation in flight
+ *
+ * @author Bertrand Martel
+ */
+public class GattOperationType {
+
+    /**
+     * characteristic write, completed by onCharacteristicWrite
+     */
+    public final static int OP_WRITE = 0;
+
+    /**
+     * characteristic read, completed by onCharacteristicRead
+     */
+    public final static int OP_READ = 1;
+
+    /**
+     * descriptor write, completed by onDescriptorWrite
+     */
+    public final static int OP_WRITE_DESCRIPTOR = 2;
+
+    /**
+     * MTU request, completed by onMtuChanged
+     */
+    public final static int OP_MTU = 3;
+}
@@ -0,0 +1,57 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth;
+
+/**
+ * Priority classes for gatt operations (lower value is dispatched first)
+ *
+ * @author Bertrand Martel
+ */
+public class GattPriority {
+
+    /**
+     * interactive user command (on/off, color picked by user)
+     */
+    public final static int PRIORITY_CONTROL = 0;
+
+    /**
+     * device initialization (client characteristic configuration descriptor writes)
+     */
+    public final static int PRIORITY_INIT = 1;
+
+    /**
+     * bulk streaming writes (animation frames)
+     */
+    public final static int PRIORITY_FRAME = 2;
+
+    /**
+     * background reads
+     */
+    public final static int PRIORITY_BACKGROUND = 3;
+
+    /**
+     * number of priority classes
+     */
+    public final static int PRIORITY_COUNT = 4;
+}
@@ -0,0 +1,304 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Pending gatt operations ordered by priority class with per-device fairness
+ * <p/>
+ * Only one operation per device is in flight : a device is busy from the moment one of its operations is polled
+ * until release() is called for it.
+ * <p/>
+ * Operations of the same class are served round robin between devices. A pending operation gains one priority class
+ * every AGING_STEP ms so that bulk operations are never starved by a continuous flow of control operations.
+ *
+ * @author Bertrand Martel
+ */
+public class GattScheduler {
+
+    /**
+     * waiting time in ms after which a pending operation is promoted by one priority class
+     */
+    private final static long AGING_STEP = 200;
+
+    /**
+     * pending operations by device handle
+     */
+    private DeviceQueue[] queues = new DeviceQueue[0];
+
+    /**
+     * round robin order of devices having pending operations
+     */
+    private ArrayList<DeviceQueue> devices = new ArrayList<>();
+
+    private int cursor = 0;
+
+    private int size = 0;
+
+    /**
+     * frame packers by characteristic uid
+     */
+    private HashMap<String, IFramePacker> packerList = new HashMap<>();
+
+    private long packedCount = 0;
+
+    /**
+     * register a packer merging consecutive pending writes of a characteristic
+     *
+     * @param characUid characteristic uid
+     * @param packer    frame packer (null to disable packing)
+     */
+    public synchronized void setFramePacker(String characUid, IFramePacker packer) {
+        if (packer == null) {
+            packerList.remove(characUid);
+        } else {
+            packerList.put(characUid, packer);
+        }
+    }
+
+    /**
+     * add a pending operation. A write is packed into the last pending write of the same characteristic and
+     * priority class when the packer of this characteristic can merge them
+     *
+     * @param task       gatt operation
+     * @param maxPayload maximum size of a packed value
+     * @return true if task has been packed into a pending write (task remains the handle of its own request)
+     */
+    public synchronized boolean add(GattTask task, int maxPayload) {
+
+        int handle = task.getHandle();
+
+        if (handle >= queues.length) {
+            queues = Arrays.copyOf(queues, handle + 1);
+        }
+        DeviceQueue queue = queues[handle];
+
+        if (queue == null) {
+            queue = new DeviceQueue();
+            queues[handle] = queue;
+        }
+        if (!queue.active) {
+            queue.active = true;
+            devices.add(queue);
+        }
+
+        if (task.isPackable()) {
+
+            IFramePacker packer = packerList.get(task.getUid());
+            GattTask last = queue.classes.get(task.getPriority()).peekLast();
+
+            if (packer != null && last != null && last.isPackable() && last.hasPendingRequest() && last.getUid().equals(task.getUid())) {
+
+                byte[] packed = packer.pack(last.getValue(), task.getValue(), maxPayload);
+
+                if (packed != null) {
+                    last.absorb(task, packed, packer, maxPayload);
+                    packedCount++;
+                    return true;
+                }
+            }
+        }
+        task.setEnqueueTime(System.currentTimeMillis());
+        queue.add(task);
+        size++;
+        return false;
+    }
+
+    /**
+     * retrieve and remove next operation to dispatch among devices that have no operation in flight
+     * <p/>
+     * device of the returned operation is marked busy
+     *
+     * @return next operation or null if no operation can be dispatched
+     */
+    public synchronized GattTask poll() {
+
+        if (size == 0) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+
+        DeviceQueue selectedQueue = null;
+        int selectedIndex = 0;
+        int selectedClass = 0;
+        int bestPriority = Integer.MAX_VALUE;
+
+        for (int i = 0; i < devices.size(); i++) {
+
+            int index = (cursor + i) % devices.size();
+            DeviceQueue queue = devices.get(index);
+
+            if (queue.busy) {
+                continue;
+            }
+
+            for (int p = 0; p < GattPriority.PRIORITY_COUNT; p++) {
+
+                GattTask head = queue.classes.get(p).peek();
+
+                if (head != null) {
+                    int effective = Math.max(0, p - (int) ((now - head.getEnqueueTime()) / AGING_STEP));
+                    if (effective < bestPriority) {
+                        bestPriority = effective;
+                        selectedQueue = queue;
+                        selectedIndex = index;
+                        selectedClass = p;
+                    }
+                }
+            }
+        }
+
+        if (selectedQueue == null) {
+            return null;
+        }
+
+        GattTask task = selectedQueue.classes.get(selectedClass).poll();
+        selectedQueue.size--;
+        selectedQueue.busy = true;
+        size--;
+
+        cursor = selectedIndex + 1;
+        if (cursor >= devices.size()) {
+            cursor = 0;
+        }
+        return task;
+    }
+
+    /**
+     * mark device as having no operation in flight
+     *
+     * @param handle device handle
+     */
+    public synchronized void release(int handle) {
+
+        DeviceQueue queue = get(handle);
+
+        if (queue != null) {
+            queue.busy = false;
+            if (queue.size == 0 && queue.active) {
+                remove(queue);
+            }
+        }
+    }
+
+    /**
+     * remove all pending operations for a device
+     *
+     * @param handle device handle
+     * @return removed operations
+     */
+    public synchronized ArrayList<GattTask> purge(int handle) {
+
+        ArrayList<GattTask> removed = new ArrayList<>();
+
+        DeviceQueue queue = get(handle);
+
+        if (queue != null) {
+            for (int p = 0; p < GattPriority.PRIORITY_COUNT; p++) {
+                removed.addAll(queue.classes.get(p));
+                queue.classes.get(p).clear();
+            }
+            size -= queue.size;
+            queue.size = 0;
+            if (!queue.busy && queue.active) {
+                remove(queue);
+            }
+        }
+        return removed;
+    }
+
+    private DeviceQueue get(int handle) {
+        if (handle >= 0 && handle < queues.length) {
+            return queues[handle];
+        }
+        return null;
+    }
+
+    /**
+     * remove device from round robin list
+     */
+    private void remove(DeviceQueue queue) {
+
+        queue.active = false;
+        int index = devices.indexOf(queue);
+        devices.remove(index);
+        if (index < cursor) {
+            cursor--;
+        }
+        if (cursor >= devices.size()) {
+            cursor = 0;
+        }
+    }
+
+    /**
+     * number of pending operations
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * number of writes packed into a pending write
+     *
+     * @return
+     */
+    public synchronized long getPackedCount() {
+        return packedCount;
+    }
+
+    /**
+     * pending operations for one device, one queue per priority class
+     */
+    private static class DeviceQueue {
+
+        private ArrayList<ArrayDeque<GattTask>> classes = new ArrayList<>(GattPriority.PRIORITY_COUNT);
+
+        private int size = 0;
+
+        private boolean busy = false;
+
+        /**
+         * true when queue is in round robin list
+         */
+        private boolean active = false;
+
+        public DeviceQueue() {
+            for (int i = 0; i < GattPriority.PRIORITY_COUNT; i++) {
+                classes.add(new ArrayDeque<GattTask>());
+            }
+        }
+
+        public void add(GattTask task) {
+            classes.get(task.getPriority()).add(task);
+            size++;
+        }
+    }
+}
@@ -23,14 +23,26 @@
  */
 package fr.bmartel.android.notti.service.bluetooth;
 
+import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothGatt;
 
+import java.util.ArrayList;
+import java.util.UUID;
+
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
 
 /**
+ * Gatt operation : issued by the dispatcher, completed by the matching gatt callback or by its timeout
+ *
  * @author Bertrand Martel
  */
-public abstract class GattTask implements Runnable {
+public abstract class GattTask extends HashedWheelTimer.Timeout implements IGattOperation {
+
+    /**
+     * operation type (see GattOperationType)
+     */
+    private int type = GattOperationType.OP_WRITE;
 
     private String gattUid = "";
     private byte[] value = null;
@@ -41,19 +53,85 @@ public abstract class GattTask implements Runnable {
 
     private BluetoothGatt gatt = null;
 
+    private String address = "";
+
+    /**
+     * device handle in connection registry
+     */
+    private int handle = -1;
+
+    private int priority = GattPriority.PRIORITY_FRAME;
+
+    private long enqueueTime = 0;
+
+    /**
+     * time after which operation is obsolete and must not be dispatched (0 for no deadline)
+     */
+    private long deadline = 0;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * write replaced by a later write packed into the same operation : its value is never written
+     */
+    private boolean superseded = false;
+
+    /**
+     * characteristic write that can be packed with following writes
+     */
+    private boolean packable = false;
+
+    /**
+     * later writes packed into this operation, each one keeps its own listener and can be cancelled on its own
+     */
+    private ArrayList<GattTask> packedTaskList = null;
+
+    /**
+     * value written on behalf of this write and packed writes (null if no write has been packed)
+     */
+    private byte[] packedValue = null;
+
+    private IFramePacker packer = null;
+
+    private int maxPayload = 0;
+
     public GattTask(BluetoothGatt gatt,String descriptorUid,byte[] descriptorVal,String serviceUid,String characUid) {
-        this.gatt=gatt;
-        this.gattUid=descriptorUid;
-        this.value=descriptorVal;
+        this(gatt, GattOperationType.OP_WRITE_DESCRIPTOR, descriptorUid, descriptorVal, GattPriority.PRIORITY_INIT, null);
         this.descriptorCharacUid=characUid;
         this.descriptorServiceUid=serviceUid;
     }
 
-    public GattTask(BluetoothGatt gatt,String gattUid,byte[] value,IPushListener listener){
+    @SuppressLint("NewApi")
+    public GattTask(BluetoothGatt gatt,int type,String gattUid,byte[] value,int priority,IPushListener listener){
         this.gatt=gatt;
+        this.type=type;
         this.gattUid=gattUid;
         this.value=value;
         this.listener=listener;
+        this.address=gatt.getDevice().getAddress();
+        this.priority=Math.min(Math.max(priority, 0), GattPriority.PRIORITY_COUNT - 1);
+    }
+
+    public int getType(){
+        return type;
+    }
+
+    /**
+     * check if a gatt callback has been issued for this operation
+     *
+     * @param type callback operation type (see GattOperationType)
+     * @param uid  characteristic uid of the callback (characteristic of the descriptor for descriptor writes)
+     * @return false if callback belongs to another operation (late callback of an operation that has timed out)
+     */
+    public boolean matches(int type, UUID uid){
+        if (type != this.type) {
+            return false;
+        }
+        if (type == GattOperationType.OP_MTU) {
+            return true;
+        }
+        String expected = (type == GattOperationType.OP_WRITE_DESCRIPTOR) ? descriptorCharacUid : gattUid;
+        return uid != null && uid.toString().equalsIgnoreCase(expected);
     }
 
     public String getUid(){
@@ -61,7 +139,7 @@ public abstract class GattTask implements Runnable {
     }
 
     public byte[] getValue(){
-        return value;
+        return (packedValue != null) ? packedValue : value;
     }
 
     public String getDescriptorServiceUid(){
@@ -80,4 +158,222 @@ public abstract class GattTask implements Runnable {
         return listener;
     }
 
+    public String getAddress(){
+        return address;
+    }
+
+    public int getHandle(){
+        return handle;
+    }
+
+    public void setHandle(int handle){
+        this.handle=handle;
+    }
+
+    public int getPriority(){
+        return priority;
+    }
+
+    public long getEnqueueTime(){
+        return enqueueTime;
+    }
+
+    public void setEnqueueTime(long enqueueTime){
+        this.enqueueTime=enqueueTime;
+    }
+
+    public long getDeadline(){
+        return deadline;
+    }
+
+    public void setDeadline(long deadline){
+        this.deadline=deadline;
+    }
+
+    public boolean isPackable(){
+        return packable;
+    }
+
+    public void setPackable(boolean packable){
+        this.packable=packable;
+    }
+
+    /**
+     * absorb a later write of the same characteristic (pending operations only) : this operation now carries the
+     * packed value and its completion is notified to listener of absorbed operation too
+     *
+     * @param next        absorbed write
+     * @param packedValue value to write
+     * @param packer      packer used, to pack again remaining writes if one of them is cancelled
+     * @param maxPayload  maximum size of a packed value
+     */
+    void absorb(GattTask next, byte[] packedValue, IFramePacker packer, int maxPayload){
+        this.packedValue=packedValue;
+        this.packer=packer;
+        this.maxPayload=maxPayload;
+        if (deadline != 0) {
+            deadline = (next.deadline == 0) ? 0 : Math.max(deadline, next.deadline);
+        }
+        if (packedTaskList == null) {
+            packedTaskList = new ArrayList<>(2);
+        }
+        packedTaskList.add(next);
+    }
+
+    /**
+     * check if this write or one of the writes packed into it is still wanted
+     *
+     * @return
+     */
+    public boolean hasPendingRequest(){
+        if (!cancelled) {
+            return true;
+        }
+        if (packedTaskList != null) {
+            for (int i = 0; i < packedTaskList.size(); i++) {
+                if (!packedTaskList.get(i).cancelled) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * pack again the writes that have not been cancelled (called once operation has left the queue). Writes whose
+     * value is replaced by a later one (packer returned the later value itself, or values cant be packed anymore) are
+     * marked as superseded
+     */
+    void repack(){
+
+        if (packedTaskList == null) {
+            return;
+        }
+        byte[] repacked = null;
+
+        //requests before this index are replaced by a later write
+        int survivorIndex = 0;
+
+        for (int i = 0; i <= packedTaskList.size(); i++) {
+
+            GattTask request = getRequest(i);
+            request.superseded = false;
+
+            if (!request.cancelled) {
+                byte[] merged = (repacked == null) ? null : packer.pack(repacked, request.value, maxPayload);
+                if (merged == null || merged == request.value) {
+                    survivorIndex = i;
+                    repacked = request.value;
+                } else {
+                    repacked = merged;
+                }
+            }
+        }
+        for (int i = 0; i < survivorIndex; i++) {
+            getRequest(i).superseded = true;
+        }
+        if (repacked != null) {
+            packedValue = repacked;
+        }
+    }
+
+    /**
+     * @param index 0 for this write, i for the i-th write packed into it
+     * @return
+     */
+    private GattTask getRequest(int index){
+        return (index == 0) ? this : packedTaskList.get(index - 1);
+    }
+
+    /**
+     * check if this write has been replaced by a later write packed into the same operation
+     *
+     * @return
+     */
+    public boolean isSuperseded(){
+        return superseded;
+    }
+
+    /**
+     * check if operation must not be dispatched : all its requests are cancelled or its deadline has passed
+     *
+     * @param now current time in ms
+     * @return true if operation must not be dispatched
+     */
+    public boolean isStale(long now){
+        return !hasPendingRequest() || (deadline != 0 && now > deadline);
+    }
+
+    /**
+     * cancel this request only : writes packed into this operation are still sent
+     */
+    @Override
+    public void cancel(){
+        cancelled=true;
+    }
+
+    /**
+     * cancel this request and all writes packed into it
+     */
+    public void cancelAll(){
+        cancelled=true;
+        if (packedTaskList != null) {
+            for (int i = 0; i < packedTaskList.size(); i++) {
+                packedTaskList.get(i).cancelled=true;
+            }
+        }
+    }
+
+    @Override
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * send operation to the device without waiting for its completion
+     *
+     * @return true if operation has been accepted by gatt layer
+     */
+    public abstract boolean issue();
+
+    /**
+     * called when gatt callback for this operation has been received
+     *
+     * @param status gatt status
+     */
+    public void onResponse(int status){
+        boolean success = (status == BluetoothGatt.GATT_SUCCESS);
+
+        //each request fails on its own if it has been cancelled or if its value has been replaced by a later write
+        notifyListener(listener, success && !cancelled && !superseded);
+        if (packedTaskList != null) {
+            for (int i = 0; i < packedTaskList.size(); i++) {
+                GattTask packed = packedTaskList.get(i);
+                notifyListener(packed.listener, success && !packed.cancelled && !packed.superseded);
+            }
+        }
+    }
+
+    /**
+     * notify push listeners of operation failure if any
+     */
+    public void notifyFailure(){
+        notifyListener(listener, false);
+        if (packedTaskList != null) {
+            for (int i = 0; i < packedTaskList.size(); i++) {
+                notifyListener(packedTaskList.get(i).listener, false);
+            }
+        }
+    }
+
+    private static void notifyListener(IPushListener listener, boolean success){
+        if (listener != null) {
+            if (success) {
+                listener.onPushSuccess();
+            } else {
+                listener.onPushFailure();
+            }
+        }
+    }
+
 }
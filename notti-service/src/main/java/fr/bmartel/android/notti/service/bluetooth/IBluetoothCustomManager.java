@@ -26,12 +26,19 @@ package fr.bmartel.android.notti.service.bluetooth;
 import android.bluetooth.BluetoothGatt;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
+import fr.bmartel.android.notti.service.bluetooth.connection.ConnectionRegistry;
+import fr.bmartel.android.notti.service.bluetooth.connection.DeviceObservers;
+import fr.bmartel.android.notti.service.bluetooth.connection.GattClientPool;
 import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceConn;
 import fr.bmartel.android.notti.service.bluetooth.listener.IConnectionListener;
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
-import fr.bmartel.android.notti.service.utils.ManualResetEvent;
+import fr.bmartel.android.notti.service.bluetooth.notification.NotificationPipeline;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRegistry;
+import fr.bmartel.android.notti.service.bluetooth.record.GattRecorder;
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
 
 /**
  * Generic interface for bluetooth custom manager
@@ -40,17 +47,127 @@ import fr.bmartel.android.notti.service.utils.ManualResetEvent;
  */
 public interface IBluetoothCustomManager {
 
-    public ManualResetEvent getEventManager();
-
     public void broadcastUpdate(String action);
 
     public void broadcastUpdateStringList(String action, ArrayList<String> strList);
 
-    public void writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt,IPushListener listener);
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt,IPushListener listener);
+
+    /**
+     * write to a characteristic with a specific priority class
+     *
+     * @param priority priority class (see GattPriority)
+     */
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt,int priority,IPushListener listener);
+
+    /**
+     * write to a characteristic with a specific priority class and deadline
+     *
+     * @param priority priority class (see GattPriority)
+     * @param deadline time in ms after which the write is obsolete and is skipped (0 for no deadline)
+     */
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt,int priority,long deadline,IPushListener listener);
+
+    /**
+     * write to a characteristic with a specific priority class and deadline
+     *
+     * @param priority priority class (see GattPriority)
+     * @param deadline time in ms after which the write is obsolete and is skipped (0 for no deadline)
+     * @param packable false to always send this write on its own, even if a frame packer is registered
+     */
+    public IGattOperation writeCharacteristic(String characUid, byte[] value, BluetoothGatt gatt,int priority,long deadline,boolean packable,IPushListener listener);
+
+    public IGattOperation readCharacteristic(String characUid, BluetoothGatt gatt);
+
+    /**
+     * read a characteristic
+     *
+     * @param listener notified of read failure (timeout, cancellation, error status). Value is received in gatt callback
+     */
+    public IGattOperation readCharacteristic(String characUid, BluetoothGatt gatt, IPushListener listener);
+
+    public IGattOperation writeDescriptor(String descriptorUid, BluetoothGatt gatt,byte[] value,String serviceUid,String characUid);
+
+    /**
+     * request ATT MTU (API 21+), completed by onMtuChanged callback
+     *
+     * @param mtu requested MTU
+     */
+    public IGattOperation requestMtu(BluetoothGatt gatt, int mtu, IPushListener listener);
+
+    /**
+     * cancel all pending gatt operations for a device
+     *
+     * @param handle device handle
+     */
+    public void cancelOperations(int handle);
+
+    /**
+     * notify that a gatt callback has been received for a device. Operation in flight is completed only if callback
+     * matches its type and characteristic
+     *
+     * @param handle device handle
+     * @param type   operation type (see GattOperationType)
+     * @param uid    characteristic uid (characteristic of the descriptor for descriptor writes, null for MTU)
+     * @param status gatt status
+     */
+    public void onOperationComplete(int handle, int type, UUID uid, int status);
+
+    public Map<String,IBluetoothDeviceConn> getConnectionList();
+
+    public ConnectionRegistry getConnectionRegistry();
+
+    public GattClientPool getClientPool();
+
+    public NotificationPipeline getNotificationPipeline();
+
+    /**
+     * characteristic listeners and notification stream of a device address, kept across reconnections
+     *
+     * @param address device address
+     * @return
+     */
+    public DeviceObservers getObservers(String address);
+
+    /**
+     * persistent state of known devices
+     *
+     * @return
+     */
+    public DeviceRegistry getDeviceRegistry();
+
+    /**
+     * write device registry changes made in memory (add, update) shortly, on timer thread
+     */
+    public void scheduleRegistryFlush();
+
+    /**
+     * register a packer merging consecutive pending writes of a characteristic
+     *
+     * @param characUid characteristic uid
+     * @param packer    frame packer (null to disable packing)
+     */
+    public void registerFramePacker(String characUid, IFramePacker packer);
 
-    public void readCharacteristic(String characUid, BluetoothGatt gatt);
+    /**
+     * gatt session recorder used to tap operations and callbacks
+     *
+     * @return current recorder or null if not recording
+     */
+    public GattRecorder getRecorder();
 
-    public void writeDescriptor(String descriptorUid, BluetoothGatt gatt,byte[] value,String serviceUid,String characUid);
+    /**
+     * connect to device's gatt server
+     *
+     * @param address device address
+     * @return false if connection could not be initiated
+     */
+    public boolean connect(String address);
 
-    public HashMap<String,IBluetoothDeviceConn> getConnectionList();
+    /**
+     * timer shared by all bluetooth timeouts
+     *
+     * @return
+     */
+    public HashedWheelTimer getTimer();
 }
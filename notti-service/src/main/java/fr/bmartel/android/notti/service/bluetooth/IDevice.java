@@ -25,6 +25,8 @@ package fr.bmartel.android.notti.service.bluetooth;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import java.util.UUID;
+
 import fr.bmartel.android.notti.service.bluetooth.listener.IDeviceInitListener;
 
 /**
@@ -51,7 +53,14 @@ public interface IDevice {
 
     public void notifyCharacteristicReadReceived(BluetoothGattCharacteristic characteristic);
 
-    public void notifyCharacteristicChangeReceived(BluetoothGattCharacteristic characteristic);
+    /**
+     * notify characteristic value change (called on notification executor)
+     *
+     * @param uid    characteristic uid
+     * @param data   payload array (recycled after this call)
+     * @param length payload length
+     */
+    public void notifyCharacteristicChangeReceived(UUID uid, byte[] data, int length);
 
     public void notifyCharacteristicWriteReceived(BluetoothGattCharacteristic characteristic);
 }
@@ -27,8 +27,8 @@ import android.bluetooth.BluetoothGattCharacteristic;
 
 import java.util.UUID;
 
-import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
 import fr.bmartel.android.notti.service.bluetooth.IDevice;
+import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
 
 /**
  * Bluetooth device implementation abstraction
@@ -37,8 +37,10 @@ import fr.bmartel.android.notti.service.bluetooth.IDevice;
  */
 public abstract class BluetoothDeviceAbstr implements IDevice {
 
-
-    private ICharacteristicListener characteristicListener;
+    /**
+     * characteristic listeners of this device implementation
+     */
+    private final CharacteristicListenerList listenerList = new CharacteristicListenerList();
 
     /**
      * bluetooth device gatt connection management
@@ -84,44 +86,59 @@ public abstract class BluetoothDeviceAbstr implements IDevice {
     @Override
     public void notifyCharacteristicReadReceived(BluetoothGattCharacteristic characteristic)
     {
-        characteristicListener.onCharacteristicReadReceived(characteristic);
+        listenerList.notifyRead(characteristic);
     }
 
     @Override
     public void notifyCharacteristicWriteReceived(BluetoothGattCharacteristic characteristic)
     {
-        characteristicListener.onCharacteristicWriteReceived(characteristic);
+        listenerList.notifyWrite(characteristic);
     }
 
     /**
      * notify characteritistic change event
      *
-     * @param characteristic
-     *      Bluetooth characteristic
+     * @param uid
+     *      characteristic uid
+     * @param data
+     *      payload array
+     * @param length
+     *      payload length
      */
     @Override
-    public void notifyCharacteristicChangeReceived(BluetoothGattCharacteristic characteristic)
+    public void notifyCharacteristicChangeReceived(UUID uid, byte[] data, int length)
     {
-        characteristicListener.onCharacteristicChangeReceived(characteristic);
+        listenerList.notifyChange(uid, data, length);
     }
 
     /**
-     * getter for characteristic listener
+     * add a listener for all characteristics
      *
-     * @return
+     * @param listener
+     */
+    public void addCharacteristicListener(ICharacteristicListener listener)
+    {
+        addCharacteristicListener(null, listener);
+    }
+
+    /**
+     * add a listener for a characteristic
+     *
+     * @param uid      characteristic uid (null for all characteristics)
+     * @param listener
      */
-    public ICharacteristicListener getCharacteristicListener()
+    public void addCharacteristicListener(UUID uid, ICharacteristicListener listener)
     {
-        return characteristicListener;
+        listenerList.add(uid, listener);
     }
 
     /**
-     * setter for characteristic listener
+     * remove all registrations of a listener
      *
      * @param listener
      */
-    public void setCharacteristicListener(ICharacteristicListener listener)
+    public void removeCharacteristicListener(ICharacteristicListener listener)
     {
-        characteristicListener=listener;
+        listenerList.remove(listener);
     }
 }
@@ -29,6 +29,7 @@ import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothProfile;
+import android.os.Build;
 import android.util.Log;
 
 import org.json.JSONException;
@@ -36,14 +37,28 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import fr.bmartel.android.notti.service.bluetooth.BluetoothConst;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRecord;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRegistry;
+import fr.bmartel.android.notti.service.bluetooth.GattFuture;
+import fr.bmartel.android.notti.service.bluetooth.GattOperationType;
+import fr.bmartel.android.notti.service.bluetooth.GattPriority;
 import fr.bmartel.android.notti.service.bluetooth.IBluetoothCustomManager;
 import fr.bmartel.android.notti.service.bluetooth.IDevice;
+import fr.bmartel.android.notti.service.bluetooth.IGattOperation;
 import fr.bmartel.android.notti.service.bluetooth.events.BluetoothEvents;
+import fr.bmartel.android.notti.service.bluetooth.listener.IConnectionStateListener;
 import fr.bmartel.android.notti.service.bluetooth.listener.IDeviceInitListener;
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
+import fr.bmartel.android.notti.service.bluetooth.notification.INotificationListener;
+import fr.bmartel.android.notti.service.bluetooth.notification.NotificationChannel;
 import fr.bmartel.android.notti.service.bluetooth.notti.NottiDevice;
+import fr.bmartel.android.notti.service.bluetooth.record.GattRecord;
+import fr.bmartel.android.notti.service.bluetooth.record.GattRecorder;
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
 
 /**
  * Bluetooth device connection management
@@ -62,7 +77,7 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
     /**
      * bluetooth gatt connection object
      */
-    private BluetoothGatt gatt = null;
+    private volatile BluetoothGatt gatt = null;
 
     /**
      * device address
@@ -71,11 +86,106 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
 
     private String deviceName = "";
 
+    /**
+     * device handle in connection registry
+     */
+    private int handle = 0;
+
     private IBluetoothCustomManager manager = null;
 
-    private IDevice device = null;
+    private volatile IDevice device = null;
+
+    /**
+     * listeners registered for this address, kept when device object is re-created on reconnection
+     */
+    private final DeviceObservers observers;
+
+    /**
+     * connection state (see ConnectionState)
+     */
+    private final AtomicInteger state = new AtomicInteger(ConnectionState.STATE_IDLE);
+
+    private final CopyOnWriteArrayList<IConnectionStateListener> stateListenerList = new CopyOnWriteArrayList<>();
+
+    /**
+     * read de-duplication and cached values
+     */
+    private final CharacteristicCache readCache = new CharacteristicCache();
+
+    /**
+     * value of last read callback, consumed by the listener of the read in flight (only one operation is in flight
+     * per device and its listener is notified before next operation is issued)
+     */
+    private volatile byte[] readValue = null;
+
+    /**
+     * notification queue to device listeners
+     */
+    private final NotificationChannel notificationChannel;
+
+    /**
+     * MTU requested during initialization
+     */
+    private final static int REQUESTED_MTU = 517;
+
+    /**
+     * ATT MTU of current connection
+     */
+    private volatile int mtu = BluetoothConst.DEFAULT_MTU;
+
+    /**
+     * max time in ms for connection and device initialization
+     */
+    private final static int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * first reconnection delay in ms, doubled for each new attempt
+     */
+    private final static int RECONNECT_MIN_DELAY = 1000;
+
+    private final static int RECONNECT_MAX_DELAY = 30000;
+
+    private final static int RECONNECT_MAX_ATTEMPTS = 5;
+
+    /**
+     * reconnection attempts since last successful initialization (gatt callback and timer threads)
+     */
+    private final AtomicInteger reconnectAttempts = new AtomicInteger(0);
+
+    /**
+     * set when disconnection has been requested by user : no reconnection is attempted
+     */
+    private volatile boolean disconnectRequested = false;
+
+    /**
+     * fired if device is not initialized within CONNECT_TIMEOUT
+     */
+    private HashedWheelTimer.Timeout connectTimeout = new HashedWheelTimer.Timeout() {
+        @SuppressLint("NewApi")
+        @Override
+        public void onTimeout() {
+            Log.w(TAG, "connection timeout for " + deviceAddr + " in state " + ConnectionState.toString(state.get()));
+            if (gatt != null) {
+                gatt.disconnect();
+            }
+            close();
+            broadcastDisconnection();
+            scheduleReconnect();
+        }
+    };
 
-    private boolean connected = false;
+    /**
+     * fired when reconnection backoff delay has elapsed
+     */
+    private HashedWheelTimer.Timeout reconnectTimeout = new HashedWheelTimer.Timeout() {
+        @Override
+        public void onTimeout() {
+            if (!disconnectRequested) {
+                Log.i(TAG, "reconnecting to " + deviceAddr + " (attempt " + reconnectAttempts.get() + ")");
+                manager.connect(deviceAddr);
+            }
+        }
+    };
 
     /**
      * Build Bluetooth device connection
@@ -83,43 +193,56 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
      * @param address
      */
     @SuppressLint("NewApi")
-    public BluetoothDeviceConn(String address, String deviceName, final IBluetoothCustomManager manager) {
+    public BluetoothDeviceConn(int handle, String address, String deviceName, final IBluetoothCustomManager manager) {
+        this.handle = handle;
         this.deviceAddr = address;
         this.deviceName = deviceName;
         this.manager = manager;
+        this.observers = manager.getObservers(address);
+
+        notificationChannel = manager.getNotificationPipeline().createChannel(new INotificationListener() {
+            @Override
+            public void onNotification(UUID uid, byte[] data, int length) {
+                IDevice current = device;
+                if (current != null) {
+                    current.notifyCharacteristicChangeReceived(uid, data, length);
+                }
+                observers.notifyCharacteristicChangeReceived(uid, data, length);
+            }
+        });
 
         gattCallback = new BluetoothGattCallback() {
             @Override
             public void onConnectionStateChange(BluetoothGatt gatt, int status,
                                                 int newState) {
 
+                record(GattRecord.CB_CONNECTION_STATE, null, newState, null);
+
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
 
                     Log.i(TAG, "Connected to GATT server.");
-                    Log.i(TAG, "Attempting to start service discovery:" + gatt.discoverServices());
+
+                    if (transition(ConnectionState.STATE_CONNECTING, ConnectionState.STATE_DISCOVERING)) {
+                        Log.i(TAG, "Attempting to start service discovery:" + gatt.discoverServices());
+                    }
 
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
 
-                    connected = false;
+                    setState(ConnectionState.STATE_IDLE);
                     Log.i(TAG, "Disconnected from GATT server.");
 
-                    try {
-                        JSONObject object = new JSONObject();
-                        object.put(BluetoothConst.DEVICE_ADDRESS, getAddress());
-                        object.put(BluetoothConst.DEVICE_NAME, getDeviceName());
+                    manager.getTimer().cancel(connectTimeout);
 
-                        ArrayList<String> values = new ArrayList<String>();
-                        values.add(object.toString());
+                    //pending operations for this device will never complete
+                    manager.cancelOperations(handle);
+                    readCache.clear();
+                    mtu = BluetoothConst.DEFAULT_MTU;
 
-                        //when device is fully intitialized broadcast service discovery
-                        manager.broadcastUpdateStringList(BluetoothEvents.BT_EVENT_DEVICE_DISCONNECTED, values);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                    
-                    if (BluetoothDeviceConn.this.gatt != null) {
-                        BluetoothDeviceConn.this.gatt.close();
-                    }
+                    broadcastDisconnection();
+
+                    manager.getClientPool().close(BluetoothDeviceConn.this.gatt);
+
+                    scheduleReconnect();
                 }
             }
 
@@ -128,6 +251,15 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
             public void onServicesDiscovered(BluetoothGatt gatt, int status) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
 
+                    if (!transition(ConnectionState.STATE_DISCOVERING, ConnectionState.STATE_INITIALIZING)) {
+                        return;
+                    }
+
+                    //queued before device init operations : larger writes can be packed as soon as device is ready
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        manager.requestMtu(gatt, REQUESTED_MTU, null);
+                    }
+
                     Runnable test = new Runnable() {
                         @Override
                         public void run() {
@@ -138,6 +270,10 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
                             device.addInitListener(new IDeviceInitListener() {
                                 @Override
                                 public void onInit() {
+
+                                    if (!transition(ConnectionState.STATE_INITIALIZING, ConnectionState.STATE_READY)) {
+                                        return;
+                                    }
                                     try {
                                         JSONObject object = new JSONObject();
                                         object.put(BluetoothConst.DEVICE_ADDRESS, getAddress());
@@ -146,7 +282,8 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
                                         ArrayList<String> values = new ArrayList<String>();
                                         values.add(object.toString());
 
-                                        connected = true;
+                                        reconnectAttempts.set(0);
+                                        manager.getTimer().cancel(connectTimeout);
                                         //when device is fully intitialized broadcast service discovery
                                         manager.broadcastUpdateStringList(BluetoothEvents.BT_EVENT_DEVICE_CONNECTED, values);
                                     } catch (JSONException e) {
@@ -167,10 +304,12 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
 
             @Override
             public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                manager.getEventManager().set();
+                record(GattRecord.CB_WRITE, characteristic.getUuid(), status, null);
+                manager.onOperationComplete(handle, GattOperationType.OP_WRITE, characteristic.getUuid(), status);
                 if (device != null) {
                     device.notifyCharacteristicWriteReceived(characteristic);
                 }
+                observers.notifyCharacteristicWriteReceived(characteristic);
             }
 
             @Override
@@ -178,28 +317,187 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
             public void onCharacteristicRead(BluetoothGatt gatt,
                                              BluetoothGattCharacteristic characteristic,
                                              int status) {
-                manager.getEventManager().set();
+                record(GattRecord.CB_READ, characteristic.getUuid(), status, characteristic.getValue());
+                byte[] value = characteristic.getValue();
+                readValue = (value != null) ? value.clone() : null;
+                manager.onOperationComplete(handle, GattOperationType.OP_READ, characteristic.getUuid(), status);
                 if (device != null) {
                     device.notifyCharacteristicReadReceived(characteristic);
                 }
+                observers.notifyCharacteristicReadReceived(characteristic);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    Log.i(TAG, "MTU set to " + mtu + " for " + deviceAddr);
+                    BluetoothDeviceConn.this.mtu = mtu;
+
+                    //negotiation usually completes after device is READY
+                    DeviceRegistry registry = manager.getDeviceRegistry();
+                    DeviceRecord record = registry.get(deviceAddr);
+                    if (record != null && record.getMtu() != mtu) {
+                        record.setMtu(mtu);
+                        if (registry.update(record)) {
+                            manager.scheduleRegistryFlush();
+                        }
+                    }
+                }
+                manager.onOperationComplete(handle, GattOperationType.OP_MTU, null, status);
             }
 
             @Override
             public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-                manager.getEventManager().set();
+                record(GattRecord.CB_WRITE_DESCRIPTOR, descriptor.getCharacteristic().getUuid(), status, null);
+                manager.onOperationComplete(handle, GattOperationType.OP_WRITE_DESCRIPTOR,
+                        descriptor.getCharacteristic().getUuid(), status);
             }
 
             @Override
             // Characteristic notification
             public void onCharacteristicChanged(BluetoothGatt gatt,
                                                 BluetoothGattCharacteristic characteristic) {
-                if (device != null) {
-                    device.notifyCharacteristicChangeReceived(characteristic);
+                record(GattRecord.CB_CHANGED, characteristic.getUuid(), 0, characteristic.getValue());
+                if (readCache.isCached(characteristic.getUuid()) && characteristic.getValue() != null) {
+                    readCache.onChanged(characteristic.getUuid(), characteristic.getValue().clone());
+                }
+                if (characteristic.getValue() != null) {
+                    //listeners run on notification executor, never on binder thread
+                    notificationChannel.offer(characteristic.getUuid(), characteristic.getValue());
                 }
             }
         };
     }
 
+    /**
+     * broadcast device disconnection
+     */
+    private void broadcastDisconnection() {
+        try {
+            JSONObject object = new JSONObject();
+            object.put(BluetoothConst.DEVICE_ADDRESS, getAddress());
+            object.put(BluetoothConst.DEVICE_NAME, getDeviceName());
+
+            ArrayList<String> values = new ArrayList<String>();
+            values.add(object.toString());
+
+            manager.broadcastUpdateStringList(BluetoothEvents.BT_EVENT_DEVICE_DISCONNECTED, values);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * move connection to CONNECTING state and arm connection timeout : called before gatt connection is initiated
+     *
+     * @return false if connection is not idle (connection already in progress or established)
+     */
+    public boolean startConnecting() {
+        return startConnecting(true);
+    }
+
+    /**
+     * move connection to CONNECTING state : called before gatt connection is initiated
+     *
+     * @param armTimeout false for background (autoConnect) connections that wait for the device indefinitely
+     * @return false if connection is not idle (connection already in progress or established)
+     */
+    public boolean startConnecting(boolean armTimeout) {
+
+        if (!transition(ConnectionState.STATE_IDLE, ConnectionState.STATE_CONNECTING)) {
+            return false;
+        }
+        disconnectRequested = false;
+        manager.getTimer().cancel(reconnectTimeout);
+        if (armTimeout) {
+            manager.getTimer().schedule(connectTimeout, CONNECT_TIMEOUT);
+        }
+        return true;
+    }
+
+    /**
+     * atomically switch from one state to another
+     *
+     * @param from expected current state
+     * @param to   next state
+     * @return true if transition has been made
+     */
+    private boolean transition(int from, int to) {
+
+        if (!ConnectionState.isValidTransition(from, to)) {
+            Log.e(TAG, "illegal transition " + ConnectionState.toString(from) + " -> " + ConnectionState.toString(to));
+            return false;
+        }
+        if (state.compareAndSet(from, to)) {
+            notifyStateChange(from, to);
+            return true;
+        }
+        Log.w(TAG, "transition " + ConnectionState.toString(from) + " -> " + ConnectionState.toString(to)
+                + " rejected for " + deviceAddr + " in state " + ConnectionState.toString(state.get()));
+        return false;
+    }
+
+    /**
+     * unconditionally set state (only for transitions valid from any state)
+     *
+     * @param to next state
+     */
+    private void setState(int to) {
+        int from = state.getAndSet(to);
+        if (from != to) {
+            notifyStateChange(from, to);
+        }
+    }
+
+    private void notifyStateChange(int from, int to) {
+        for (IConnectionStateListener listener : stateListenerList) {
+            listener.onStateChanged(this, from, to);
+        }
+    }
+
+    /**
+     * check that gatt operations can be sent in current state
+     *
+     * @return true if device is initializing or ready
+     */
+    private boolean isOperationAllowed() {
+        int current = state.get();
+        if (current == ConnectionState.STATE_INITIALIZING || current == ConnectionState.STATE_READY) {
+            return true;
+        }
+        Log.w(TAG, "gatt operation rejected for " + deviceAddr + " in state " + ConnectionState.toString(current));
+        return false;
+    }
+
+    /**
+     * schedule a reconnection with exponential backoff after an unexpected disconnection
+     */
+    private void scheduleReconnect() {
+
+        if (disconnectRequested) {
+            return;
+        }
+        int attempt = reconnectAttempts.getAndIncrement();
+
+        if (attempt >= RECONNECT_MAX_ATTEMPTS) {
+            Log.w(TAG, "giving up reconnection to " + deviceAddr);
+            reconnectAttempts.set(0);
+            return;
+        }
+        long delay = Math.min(RECONNECT_MAX_DELAY, RECONNECT_MIN_DELAY << attempt);
+        manager.getTimer().schedule(reconnectTimeout, delay);
+    }
+
+    /**
+     * tap a gatt callback into manager session recorder if any
+     */
+    private void record(byte type, UUID uid, int status, byte[] value) {
+        GattRecorder recorder = manager.getRecorder();
+        if (recorder != null) {
+            recorder.record(type, deviceAddr, (uid != null) ? uid.toString() : null, status, value);
+        }
+    }
+
     public BluetoothGattCallback getGattCallback() {
         return gattCallback;
     }
@@ -209,6 +507,11 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
         return this.deviceAddr;
     }
 
+    @Override
+    public int getHandle() {
+        return handle;
+    }
+
     @Override
     public String getDeviceName() {
         return deviceName;
@@ -221,25 +524,96 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
 
     @Override
     public boolean isConnected() {
-        return connected;
+        return state.get() == ConnectionState.STATE_READY;
+    }
+
+    @Override
+    public int getState() {
+        return state.get();
+    }
+
+    @Override
+    public void addStateListener(IConnectionStateListener listener) {
+        stateListenerList.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeStateListener(IConnectionStateListener listener) {
+        stateListenerList.remove(listener);
     }
 
     @SuppressLint("NewApi")
     @Override
-    public void writeCharacteristic(String service, String charac, byte[] value, IPushListener listener) {
-        manager.writeCharacteristic(charac, value, gatt, listener);
+    public IGattOperation writeCharacteristic(String service, String charac, byte[] value, IPushListener listener) {
+        return writeCharacteristic(service, charac, value, GattPriority.PRIORITY_FRAME, listener);
+    }
+
+    @Override
+    public IGattOperation writeCharacteristic(String service, String charac, byte[] value, int priority, IPushListener listener) {
+        if (!isOperationAllowed()) {
+            if (listener != null) {
+                listener.onPushFailure();
+            }
+            return null;
+        }
+        return manager.writeCharacteristic(charac, value, gatt, priority, listener);
     }
 
     @SuppressLint("NewApi")
     @Override
-    public void readCharacteristic(String service, String charac) {
-        manager.readCharacteristic(charac, gatt);
+    public GattFuture<byte[]> readCharacteristic(String service, String charac) {
+
+        if (!isOperationAllowed() || charac == null) {
+            return GattFuture.failed();
+        }
+        final UUID uid = UUID.fromString(charac);
+
+        final CharacteristicCache.ReadRequest request = readCache.acquire(uid);
+
+        if (request.isNewRead()) {
+            IGattOperation operation = manager.readCharacteristic(charac, gatt, new IPushListener() {
+                @Override
+                public void onPushFailure() {
+                    readCache.onReadFailure(uid, request);
+                }
+
+                @Override
+                public void onPushSuccess() {
+                    //value is only given to the callers of this read, not to a read issued after it was cancelled
+                    readCache.onRead(uid, request, readValue);
+                }
+            });
+            if (operation == null) {
+                readCache.onReadFailure(uid, request);
+            } else {
+                request.setOperation(operation);
+            }
+        }
+        return request.getFuture();
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public NotificationChannel getNotificationChannel() {
+        return notificationChannel;
+    }
+
+    @Override
+    public void setReadCacheTtl(String charac, long ttl) {
+        readCache.setTtl(UUID.fromString(charac), ttl);
     }
 
     @SuppressLint("NewApi")
     @Override
     public void enableDisableNotification(UUID service, UUID charac, boolean enable) {
 
+        if (!isOperationAllowed()) {
+            return;
+        }
         if (gatt.getService(service) != null &&
                 gatt.getService(service).getCharacteristic(charac) != null)
             gatt.setCharacteristicNotification(gatt.getService(service).getCharacteristic(charac), enable);
@@ -252,6 +626,10 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
     @Override
     public void enableGattNotifications(String serviceUid, String characUid) {
 
+        if (!isOperationAllowed()) {
+            return;
+        }
+
         String descriptorStr = BluetoothConst.CLIENT_CHARACTERISTIC_CONFIG;
         manager.writeDescriptor(descriptorStr, gatt, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, serviceUid, characUid);
     }
@@ -261,7 +639,12 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
     }
 
     public void setGatt(BluetoothGatt gatt) {
+        BluetoothGatt previous = this.gatt;
         this.gatt = gatt;
+        if (previous != null && previous != gatt) {
+            //previous client would be leaked otherwise
+            manager.getClientPool().close(previous);
+        }
     }
 
     @Override
@@ -277,8 +660,24 @@ public class BluetoothDeviceConn implements IBluetoothDeviceConn {
     @SuppressLint("NewApi")
     @Override
     public void disconnect() {
-        if (gatt != null) {
+        disconnectRequested = true;
+        manager.getTimer().cancel(connectTimeout);
+        manager.getTimer().cancel(reconnectTimeout);
+
+        int current = state.get();
+        if (current != ConnectionState.STATE_IDLE && transition(current, ConnectionState.STATE_DISCONNECTING) && gatt != null) {
             gatt.disconnect();
         }
     }
+
+    @SuppressLint("NewApi")
+    @Override
+    public void close() {
+        manager.getTimer().cancel(connectTimeout);
+        manager.getClientPool().close(gatt);
+        setState(ConnectionState.STATE_IDLE);
+        //no callback will be received for pending operations
+        manager.cancelOperations(handle);
+        readCache.clear();
+    }
 }
@@ -0,0 +1,351 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.bmartel.android.notti.service.bluetooth.GattFuture;
+import fr.bmartel.android.notti.service.bluetooth.IGattOperation;
+
+/**
+ * Per connection read state of characteristics
+ * <p/>
+ * Concurrent reads of the same characteristic share the read in flight. Characteristics with a TTL keep their last
+ * value (from a read or a notification) and reads are served from it while it is fresh. Each caller gets its own
+ * future and its own copy of the value : cancelling a future only cancels the read when no other caller waits for it.
+ *
+ * @author Bertrand Martel
+ */
+public class CharacteristicCache {
+
+    private static class Entry {
+
+        /**
+         * time to live of cached value in milliseconds (0 : no caching)
+         */
+        private long ttl = 0;
+
+        private byte[] value = null;
+
+        private long timestamp = 0;
+
+        private SharedRead pending = null;
+    }
+
+    /**
+     * read in flight shared by all callers reading the same characteristic (guarded by its entry)
+     */
+    private static class SharedRead {
+
+        private final ArrayList<GattFuture<byte[]>> futureList = new ArrayList<>(2);
+
+        /**
+         * callers that have not cancelled their future
+         */
+        private int sharerCount = 0;
+
+        private volatile IGattOperation operation = null;
+    }
+
+    /**
+     * result of acquire()
+     */
+    public static class ReadRequest {
+
+        private final GattFuture<byte[]> future;
+
+        private final SharedRead read;
+
+        private final boolean newRead;
+
+        private ReadRequest(GattFuture<byte[]> future, SharedRead read, boolean newRead) {
+            this.future = future;
+            this.read = read;
+            this.newRead = newRead;
+        }
+
+        /**
+         * @return future of this caller
+         */
+        public GattFuture<byte[]> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return true if caller must issue the read
+         */
+        public boolean isNewRead() {
+            return newRead;
+        }
+
+        /**
+         * set gatt operation of a new read, cancelled when all callers have cancelled
+         *
+         * @param operation read operation
+         */
+        public void setOperation(IGattOperation operation) {
+            if (read != null) {
+                read.operation = operation;
+            }
+        }
+    }
+
+    /**
+     * cancellation of one caller of a shared read
+     */
+    private static class Sharer implements IGattOperation {
+
+        private final Entry entry;
+
+        private final SharedRead read;
+
+        private boolean cancelled = false;
+
+        private Sharer(Entry entry, SharedRead read) {
+            this.entry = entry;
+            this.read = read;
+        }
+
+        @Override
+        public void cancel() {
+            boolean last;
+            synchronized (entry) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                last = (--read.sharerCount == 0);
+                if (last && entry.pending == read) {
+                    //next read of this characteristic will issue a new one
+                    entry.pending = null;
+                }
+            }
+            IGattOperation operation = read.operation;
+            if (last && operation != null) {
+                operation.cancel();
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            synchronized (entry) {
+                return cancelled;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<UUID, Entry> entryList = new ConcurrentHashMap<>();
+
+    private Entry getEntry(UUID uid) {
+        Entry entry = entryList.get(uid);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = entryList.putIfAbsent(uid, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * set time to live of cached values for a characteristic
+     *
+     * @param uid characteristic uid
+     * @param ttl time to live in milliseconds (0 to disable caching)
+     */
+    public void setTtl(UUID uid, long ttl) {
+        Entry entry = getEntry(uid);
+        synchronized (entry) {
+            entry.ttl = ttl;
+            if (ttl <= 0) {
+                entry.value = null;
+            }
+        }
+    }
+
+    /**
+     * get a fresh cached value or join the read in flight for a characteristic. If none is available, a new read is
+     * registered : caller must then issue it (see ReadRequest.isNewRead)
+     *
+     * @param uid characteristic uid
+     * @return read request of this caller
+     */
+    public ReadRequest acquire(UUID uid) {
+
+        Entry entry = getEntry(uid);
+
+        synchronized (entry) {
+
+            if (entry.value != null && (System.currentTimeMillis() - entry.timestamp) <= entry.ttl) {
+                return new ReadRequest(GattFuture.completed(entry.value.clone()), null, false);
+            }
+            boolean newRead = false;
+
+            if (entry.pending == null) {
+                entry.pending = new SharedRead();
+                newRead = true;
+            }
+            SharedRead read = entry.pending;
+
+            GattFuture<byte[]> future = new GattFuture<>();
+            future.setOperation(new Sharer(entry, read));
+            read.futureList.add(future);
+            read.sharerCount++;
+
+            return new ReadRequest(future, read, newRead);
+        }
+    }
+
+    /**
+     * read result received for the read issued by a request. A read that has been cancelled and replaced by a new
+     * one only completes its own callers
+     *
+     * @param uid     characteristic uid
+     * @param request request of the caller that issued the read
+     * @param value   value read (owned by cache)
+     */
+    public void onRead(UUID uid, ReadRequest request, byte[] value) {
+
+        if (value == null) {
+            onReadFailure(uid, request);
+            return;
+        }
+        if (request.read == null) {
+            request.future.complete(value);
+            return;
+        }
+        Entry entry = getEntry(uid);
+
+        synchronized (entry) {
+            if (entry.pending == request.read) {
+                entry.pending = null;
+            }
+            if (entry.ttl > 0) {
+                entry.value = value;
+                entry.timestamp = System.currentTimeMillis();
+            }
+        }
+        complete(entry, request.read, value);
+    }
+
+    /**
+     * read has failed before any callback was received (timeout, cancellation)
+     *
+     * @param uid     characteristic uid
+     * @param request request of the caller that issued the read
+     */
+    public void onReadFailure(UUID uid, ReadRequest request) {
+
+        if (request.read == null) {
+            request.future.fail();
+            return;
+        }
+        Entry entry = getEntry(uid);
+
+        synchronized (entry) {
+            if (entry.pending == request.read) {
+                entry.pending = null;
+            }
+        }
+        complete(entry, request.read, null);
+    }
+
+    /**
+     * complete futures of all callers of a shared read
+     *
+     * @param entry entry of read characteristic
+     * @param read  shared read (detached from entry)
+     * @param value value read or null if read failed
+     */
+    private static void complete(Entry entry, SharedRead read, byte[] value) {
+
+        ArrayList<GattFuture<byte[]>> futures;
+
+        synchronized (entry) {
+            futures = new ArrayList<>(read.futureList);
+            read.futureList.clear();
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            if (value != null) {
+                futures.get(i).complete(value.clone());
+            } else {
+                futures.get(i).fail();
+            }
+        }
+    }
+
+    /**
+     * check if notifications for a characteristic must be fed to the cache (avoid copying notification value)
+     *
+     * @param uid characteristic uid
+     * @return
+     */
+    public boolean isCached(UUID uid) {
+        Entry entry = entryList.get(uid);
+        return entry != null && entry.ttl > 0;
+    }
+
+    /**
+     * notification received for a characteristic
+     *
+     * @param uid   characteristic uid
+     * @param value notified value (owned by cache)
+     */
+    public void onChanged(UUID uid, byte[] value) {
+
+        Entry entry = entryList.get(uid);
+
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.ttl > 0) {
+                    entry.value = value;
+                    entry.timestamp = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    /**
+     * drop cached values and fail reads in flight (connection lost)
+     */
+    public void clear() {
+
+        for (Entry entry : entryList.values()) {
+
+            SharedRead pending;
+
+            synchronized (entry) {
+                pending = entry.pending;
+                entry.pending = null;
+                entry.value = null;
+            }
+            if (pending != null) {
+                complete(entry, pending, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
+
+/**
+ * Characteristic listeners, each one optionally filtered on a characteristic uid
+ * <p/>
+ * Listener array is replaced on each registration so that dispatch needs no lock and does not allocate.
+ *
+ * @author Bertrand Martel
+ */
+public class CharacteristicListenerList {
+
+    /**
+     * listener registered for a characteristic
+     */
+    private final static class ListenerEntry {
+
+        /**
+         * characteristic filter (null for all characteristics)
+         */
+        private final UUID uid;
+
+        private final ICharacteristicListener listener;
+
+        private ListenerEntry(UUID uid, ICharacteristicListener listener) {
+            this.uid = uid;
+            this.listener = listener;
+        }
+
+        private boolean accept(UUID characUid) {
+            return uid == null || uid.equals(characUid);
+        }
+    }
+
+    private volatile ListenerEntry[] listenerArray = new ListenerEntry[0];
+
+    private final Object listenerLock = new Object();
+
+    /**
+     * add a listener for a characteristic
+     *
+     * @param uid      characteristic uid (null for all characteristics)
+     * @param listener
+     */
+    public void add(UUID uid, ICharacteristicListener listener) {
+        synchronized (listenerLock) {
+            ListenerEntry[] entries = Arrays.copyOf(listenerArray, listenerArray.length + 1);
+            entries[entries.length - 1] = new ListenerEntry(uid, listener);
+            listenerArray = entries;
+        }
+    }
+
+    /**
+     * remove all registrations of a listener
+     *
+     * @param listener
+     */
+    public void remove(ICharacteristicListener listener) {
+        synchronized (listenerLock) {
+            ListenerEntry[] entries = listenerArray;
+            int count = 0;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].listener != listener) {
+                    count++;
+                }
+            }
+            if (count == entries.length) {
+                return;
+            }
+            ListenerEntry[] remaining = new ListenerEntry[count];
+            int index = 0;
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].listener != listener) {
+                    remaining[index++] = entries[i];
+                }
+            }
+            listenerArray = remaining;
+        }
+    }
+
+    public void notifyRead(BluetoothGattCharacteristic characteristic) {
+        ListenerEntry[] entries = listenerArray;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].accept(characteristic.getUuid())) {
+                entries[i].listener.onCharacteristicReadReceived(characteristic);
+            }
+        }
+    }
+
+    public void notifyWrite(BluetoothGattCharacteristic characteristic) {
+        ListenerEntry[] entries = listenerArray;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].accept(characteristic.getUuid())) {
+                entries[i].listener.onCharacteristicWriteReceived(characteristic);
+            }
+        }
+    }
+
+    /**
+     * @param uid    characteristic uid
+     * @param data   payload array (recycled after this call)
+     * @param length payload length
+     */
+    public void notifyChange(UUID uid, byte[] data, int length) {
+        ListenerEntry[] entries = listenerArray;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].accept(uid)) {
+                entries[i].listener.onCharacteristicChangeReceived(uid, data, length);
+            }
+        }
+    }
+}
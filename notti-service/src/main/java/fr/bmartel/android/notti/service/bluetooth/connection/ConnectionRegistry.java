@@ -0,0 +1,164 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe registry of bluetooth connections
+ * <p/>
+ * Connections are indexed by address and by a compact int handle assigned at registration. Reads never lock :
+ * lookup by address goes through a concurrent map and lookup by handle through a copy-on-write array.
+ * Handles are never reused so a stale handle can not designate another device.
+ *
+ * @author Bertrand Martel
+ */
+public class ConnectionRegistry {
+
+    /**
+     * factory used to build a connection with its handle
+     */
+    public interface IConnectionFactory {
+        public IBluetoothDeviceConn create(int handle);
+    }
+
+    private final ConcurrentHashMap<String, IBluetoothDeviceConn> connectionList = new ConcurrentHashMap<>();
+
+    private final Map<String, IBluetoothDeviceConn> readOnlyView = Collections.unmodifiableMap(connectionList);
+
+    /**
+     * connection by handle (copy-on-write)
+     */
+    private volatile IBluetoothDeviceConn[] handleList = new IBluetoothDeviceConn[0];
+
+    private final Object writeLock = new Object();
+
+    /**
+     * retrieve connection for an address or register a new one built by factory
+     *
+     * @param address device address
+     * @param factory connection factory
+     * @return registered connection
+     */
+    public IBluetoothDeviceConn getOrCreate(String address, IConnectionFactory factory) {
+
+        IBluetoothDeviceConn conn = connectionList.get(address);
+
+        if (conn != null) {
+            return conn;
+        }
+        synchronized (writeLock) {
+            conn = connectionList.get(address);
+            if (conn == null) {
+                IBluetoothDeviceConn[] list = new IBluetoothDeviceConn[handleList.length + 1];
+                System.arraycopy(handleList, 0, list, 0, handleList.length);
+                conn = factory.create(handleList.length);
+                list[handleList.length] = conn;
+                handleList = list;
+                connectionList.put(address, conn);
+            }
+        }
+        return conn;
+    }
+
+    /**
+     * unregister a connection (its handle is not reused)
+     *
+     * @param address device address
+     * @return removed connection or null
+     */
+    public IBluetoothDeviceConn remove(String address) {
+
+        synchronized (writeLock) {
+            IBluetoothDeviceConn conn = connectionList.remove(address);
+            if (conn != null) {
+                IBluetoothDeviceConn[] list = handleList.clone();
+                list[conn.getHandle()] = null;
+                handleList = list;
+            }
+            return conn;
+        }
+    }
+
+    public IBluetoothDeviceConn get(String address) {
+        return connectionList.get(address);
+    }
+
+    /**
+     * retrieve connection by handle
+     *
+     * @param handle device handle
+     * @return connection or null if handle is unknown or has been removed
+     */
+    public IBluetoothDeviceConn get(int handle) {
+        IBluetoothDeviceConn[] list = handleList;
+        if (handle >= 0 && handle < list.length) {
+            return list[handle];
+        }
+        return null;
+    }
+
+    public boolean contains(String address) {
+        return connectionList.containsKey(address);
+    }
+
+    /**
+     * number of handles ever assigned (upper bound for handle indexed arrays)
+     *
+     * @return
+     */
+    public int getHandleCount() {
+        return handleList.length;
+    }
+
+    /**
+     * immutable snapshot of registered connections, safe to iterate while connections are added or removed
+     *
+     * @return
+     */
+    public List<IBluetoothDeviceConn> snapshot() {
+
+        IBluetoothDeviceConn[] list = handleList;
+        ArrayList<IBluetoothDeviceConn> snapshot = new ArrayList<>(list.length);
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] != null) {
+                snapshot.add(list[i]);
+            }
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    /**
+     * read-only live view of connections by address
+     *
+     * @return
+     */
+    public Map<String, IBluetoothDeviceConn> asMap() {
+        return readOnlyView;
+    }
+}
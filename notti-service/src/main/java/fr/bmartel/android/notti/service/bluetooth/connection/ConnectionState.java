@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+/**
+ * States of a bluetooth device connection
+ * <p/>
+ * IDLE -> CONNECTING -> DISCOVERING -> INITIALIZING -> READY -> DISCONNECTING -> IDLE
+ * <p/>
+ * any state may go back to IDLE when link is lost or connection is closed
+ *
+ * @author Bertrand Martel
+ */
+public class ConnectionState {
+
+    /**
+     * no gatt connection
+     */
+    public final static int STATE_IDLE = 0;
+
+    /**
+     * gatt connection initiated
+     */
+    public final static int STATE_CONNECTING = 1;
+
+    /**
+     * link established, discovering services
+     */
+    public final static int STATE_DISCOVERING = 2;
+
+    /**
+     * services discovered, device initialization in progress
+     */
+    public final static int STATE_INITIALIZING = 3;
+
+    /**
+     * device fully initialized
+     */
+    public final static int STATE_READY = 4;
+
+    /**
+     * disconnection requested
+     */
+    public final static int STATE_DISCONNECTING = 5;
+
+    /**
+     * check if a transition is legal
+     *
+     * @param from current state
+     * @param to   next state
+     * @return true if transition is allowed
+     */
+    public static boolean isValidTransition(int from, int to) {
+
+        switch (to) {
+            case STATE_IDLE:
+                return true;
+            case STATE_CONNECTING:
+                return from == STATE_IDLE;
+            case STATE_DISCOVERING:
+                return from == STATE_CONNECTING;
+            case STATE_INITIALIZING:
+                return from == STATE_DISCOVERING;
+            case STATE_READY:
+                return from == STATE_INITIALIZING;
+            case STATE_DISCONNECTING:
+                return from != STATE_IDLE && from != STATE_DISCONNECTING;
+        }
+        return false;
+    }
+
+    public static String toString(int state) {
+
+        switch (state) {
+            case STATE_IDLE:
+                return "IDLE";
+            case STATE_CONNECTING:
+                return "CONNECTING";
+            case STATE_DISCOVERING:
+                return "DISCOVERING";
+            case STATE_INITIALIZING:
+                return "INITIALIZING";
+            case STATE_READY:
+                return "READY";
+            case STATE_DISCONNECTING:
+                return "DISCONNECTING";
+        }
+        return "UNKNOWN";
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import fr.bmartel.android.notti.service.bluetooth.events.CharacteristicEvent;
+import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
+import fr.bmartel.android.notti.service.stream.Stream;
+import fr.bmartel.android.notti.service.stream.StreamSource;
+
+/**
+ * Characteristic listeners and notification stream of a device address
+ * <p/>
+ * Kept by the manager for each address : registrations are made before the device is connected and survive
+ * reconnections, while device implementation objects are re-created for each connection.
+ *
+ * @author Bertrand Martel
+ */
+public class DeviceObservers {
+
+    private final String address;
+
+    private final CharacteristicListenerList listenerList = new CharacteristicListenerList();
+
+    private final StreamSource<CharacteristicEvent> notificationStream = new StreamSource<>();
+
+    public DeviceObservers(String address) {
+        this.address = address;
+    }
+
+    public void addCharacteristicListener(UUID uid, ICharacteristicListener listener) {
+        listenerList.add(uid, listener);
+    }
+
+    public void removeCharacteristicListener(ICharacteristicListener listener) {
+        listenerList.remove(listener);
+    }
+
+    /**
+     * stream of characteristic notifications
+     *
+     * @return
+     */
+    public Stream<CharacteristicEvent> getNotificationStream() {
+        return notificationStream;
+    }
+
+    public void notifyCharacteristicReadReceived(BluetoothGattCharacteristic characteristic) {
+        listenerList.notifyRead(characteristic);
+    }
+
+    public void notifyCharacteristicWriteReceived(BluetoothGattCharacteristic characteristic) {
+        listenerList.notifyWrite(characteristic);
+    }
+
+    /**
+     * @param uid    characteristic uid
+     * @param data   payload array (recycled after this call)
+     * @param length payload length
+     */
+    public void notifyCharacteristicChangeReceived(UUID uid, byte[] data, int length) {
+
+        listenerList.notifyChange(uid, data, length);
+
+        //payload buffer is recycled : only copy it if somebody is listening
+        if (notificationStream.hasSubscribers()) {
+            notificationStream.emit(new CharacteristicEvent(address, uid, Arrays.copyOf(data, length)));
+        }
+    }
+}
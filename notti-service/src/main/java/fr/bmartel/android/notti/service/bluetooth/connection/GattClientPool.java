@@ -0,0 +1,369 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.connection;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
+
+/**
+ * Lifecycle tracking of every gatt client created by the manager
+ * <p/>
+ * Android only provides a limited number of gatt client interfaces : a connection must acquire a slot before calling
+ * connectGatt and gives it back when its gatt is closed. A periodic check closes gatt clients that are still open while
+ * their connection is idle, has been removed or is using another gatt (leaks).
+ * <p/>
+ * Background (autoConnect) clients of known devices share the same slots but give way to user connections : when all
+ * slots are used, a user connection takes the slot of a background client still waiting for its device.
+ *
+ * @author Bertrand Martel
+ */
+public class GattClientPool {
+
+    private final static String TAG = GattClientPool.class.getName();
+
+    /**
+     * default maximum number of gatt clients opened at the same time
+     */
+    public final static int DEFAULT_MAX_CLIENTS = 6;
+
+    /**
+     * period of leak check in milliseconds
+     */
+    private final static int LEAK_CHECK_PERIOD = 5000;
+
+    /**
+     * delay after which an open gatt client of an idle connection is considered as leaked
+     */
+    private final static int LEAK_GRACE_DELAY = 10000;
+
+    private static class Entry {
+
+        private final String address;
+
+        private final long openTime;
+
+        private final boolean background;
+
+        private long idleSince = 0;
+
+        public Entry(String address, long openTime, boolean background) {
+            this.address = address;
+            this.openTime = openTime;
+            this.background = background;
+        }
+    }
+
+    /**
+     * open gatt clients (gatt objects dont override equals/hashcode)
+     */
+    private final IdentityHashMap<BluetoothGatt, Entry> clientList = new IdentityHashMap<>();
+
+    private final ConnectionRegistry registry;
+
+    private final HashedWheelTimer timer;
+
+    private volatile int maxClients;
+
+    /**
+     * slots acquired but not yet registered
+     */
+    private int pending = 0;
+
+    private long createdCount = 0;
+
+    private long closedCount = 0;
+
+    private long leakCount = 0;
+
+    private long rejectedCount = 0;
+
+    private long preemptedCount = 0;
+
+    private final HashedWheelTimer.Timeout leakCheck = new HashedWheelTimer.Timeout() {
+        @Override
+        public void onTimeout() {
+            checkLeaks();
+            timer.schedule(this, LEAK_CHECK_PERIOD);
+        }
+    };
+
+    public GattClientPool(ConnectionRegistry registry, HashedWheelTimer timer, int maxClients) {
+        this.registry = registry;
+        this.timer = timer;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * start periodic leak check
+     */
+    public void start() {
+        timer.schedule(leakCheck, LEAK_CHECK_PERIOD);
+    }
+
+    /**
+     * stop periodic leak check and close gatt clients still open
+     */
+    public void stop() {
+        timer.cancel(leakCheck);
+
+        ArrayList<BluetoothGatt> openList;
+
+        synchronized (this) {
+            openList = new ArrayList<>(clientList.keySet());
+            closedCount += clientList.size();
+            clientList.clear();
+        }
+        for (int i = 0; i < openList.size(); i++) {
+            closeQuietly(openList.get(i));
+        }
+    }
+
+    /**
+     * reserve a gatt client slot before calling connectGatt
+     *
+     * @param address    device address
+     * @param background true for a background (autoConnect) connection
+     * @return false if all gatt clients are in use
+     */
+    public boolean tryAcquire(String address, boolean background) {
+
+        BluetoothGatt preempted = null;
+        String preemptedAddress = null;
+
+        synchronized (this) {
+
+            if (clientList.size() + pending >= maxClients) {
+
+                if (!background) {
+                    preempted = findWaitingBackgroundClient();
+                }
+                if (preempted == null) {
+                    rejectedCount++;
+                    Log.w(TAG, "no gatt client available for " + address + " (" + clientList.size() + " open, " + pending + " pending)");
+                    return false;
+                }
+                preemptedAddress = clientList.remove(preempted).address;
+                preemptedCount++;
+                closedCount++;
+            }
+            pending++;
+        }
+        if (preempted != null) {
+            Log.i(TAG, "background connection to " + preemptedAddress + " closed for " + address);
+            closeQuietly(preempted);
+            IBluetoothDeviceConn conn = registry.get(preemptedAddress);
+            if (conn != null) {
+                conn.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * find a background client whose device has not connected yet
+     *
+     * @return gatt client or null if none
+     */
+    private BluetoothGatt findWaitingBackgroundClient() {
+
+        for (Map.Entry<BluetoothGatt, Entry> item : clientList.entrySet()) {
+
+            if (item.getValue().background) {
+
+                IBluetoothDeviceConn conn = registry.get(item.getValue().address);
+
+                if (conn != null && conn.getBluetoothGatt() == item.getKey() && conn.getState() == ConnectionState.STATE_CONNECTING) {
+                    return item.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * register gatt client created for an acquired slot, once it has been given to its connection
+     *
+     * @param address    device address
+     * @param gatt       gatt client returned by connectGatt
+     * @param background true for a background (autoConnect) connection
+     */
+    public synchronized void register(String address, BluetoothGatt gatt, boolean background) {
+
+        if (pending > 0) {
+            pending--;
+        }
+        if (gatt != null && !clientList.containsKey(gatt)) {
+            clientList.put(gatt, new Entry(address, System.currentTimeMillis(), background));
+            createdCount++;
+        }
+    }
+
+    /**
+     * release a slot acquired with tryAcquire that wont be registered
+     */
+    public synchronized void cancelAcquire() {
+        if (pending > 0) {
+            pending--;
+        }
+    }
+
+    /**
+     * close a gatt client and release its slot. Closing an already closed gatt does nothing
+     *
+     * @param gatt gatt client
+     * @return true if gatt client has been closed
+     */
+    @SuppressLint("NewApi")
+    public boolean close(BluetoothGatt gatt) {
+
+        if (gatt == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (clientList.remove(gatt) == null) {
+                return false;
+            }
+            closedCount++;
+        }
+        gatt.close();
+        return true;
+    }
+
+    /**
+     * close gatt clients whose connection is gone, uses another gatt or stayed idle for too long
+     */
+    private void checkLeaks() {
+
+        long now = System.currentTimeMillis();
+
+        ArrayList<BluetoothGatt> leakList = new ArrayList<>();
+
+        synchronized (this) {
+
+            Iterator<Map.Entry<BluetoothGatt, Entry>> it = clientList.entrySet().iterator();
+
+            while (it.hasNext()) {
+
+                Map.Entry<BluetoothGatt, Entry> item = it.next();
+                Entry entry = item.getValue();
+
+                IBluetoothDeviceConn conn = registry.get(entry.address);
+
+                boolean leaked;
+
+                if (conn == null || conn.getBluetoothGatt() != item.getKey()) {
+                    leaked = true;
+                } else if (conn.getState() == ConnectionState.STATE_IDLE) {
+                    if (entry.idleSince == 0) {
+                        entry.idleSince = now;
+                    }
+                    leaked = (now - entry.idleSince) >= LEAK_GRACE_DELAY;
+                } else {
+                    entry.idleSince = 0;
+                    leaked = false;
+                }
+
+                if (leaked) {
+                    Log.w(TAG, "gatt client leak detected for " + entry.address + " opened " + (now - entry.openTime) + "ms ago");
+                    leakCount++;
+                    closedCount++;
+                    it.remove();
+                    leakList.add(item.getKey());
+                }
+            }
+        }
+        for (int i = 0; i < leakList.size(); i++) {
+            closeQuietly(leakList.get(i));
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void closeQuietly(BluetoothGatt gatt) {
+        try {
+            gatt.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized int getOpenCount() {
+        return clientList.size();
+    }
+
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    /**
+     * set maximum number of gatt clients opened at the same time. Clients already open are kept
+     *
+     * @param maxClients maximum number of gatt clients
+     */
+    public void setMaxClients(int maxClients) {
+        this.maxClients = maxClients;
+    }
+
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    public synchronized long getClosedCount() {
+        return closedCount;
+    }
+
+    /**
+     * number of gatt clients closed by leak detection
+     *
+     * @return
+     */
+    public synchronized long getLeakCount() {
+        return leakCount;
+    }
+
+    /**
+     * number of connection attempts rejected because all gatt clients were in use
+     *
+     * @return
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * number of background clients closed to let a user connection through
+     *
+     * @return
+     */
+    public synchronized long getPreemptedCount() {
+        return preemptedCount;
+    }
+}
@@ -29,6 +29,10 @@ import java.util.UUID;
 
 import fr.bmartel.android.notti.service.bluetooth.IBluetoothCustomManager;
 import fr.bmartel.android.notti.service.bluetooth.IDevice;
+import fr.bmartel.android.notti.service.bluetooth.GattFuture;
+import fr.bmartel.android.notti.service.bluetooth.IGattOperation;
+import fr.bmartel.android.notti.service.bluetooth.listener.IConnectionStateListener;
+import fr.bmartel.android.notti.service.bluetooth.notification.NotificationChannel;
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
 
 /**
@@ -45,26 +49,78 @@ public interface IBluetoothDeviceConn {
      */
     public String getAddress();
 
+    /**
+     * compact device index assigned by connection registry
+     *
+     * @return
+     */
+    public int getHandle();
+
     public String getDeviceName();
 
     public BluetoothGatt getBluetoothGatt();
 
     public boolean isConnected();
 
+    /**
+     * current connection state
+     *
+     * @return state (see ConnectionState)
+     */
+    public int getState();
+
+    public void addStateListener(IConnectionStateListener listener);
+
+    public void removeStateListener(IConnectionStateListener listener);
+
     /**
      * write to a characteristic
      * @param serviceSmartliteControlUUID
      * @param characteristicSmartliteSettingsUUID
      * @param value
      */
-    public void writeCharacteristic(String serviceSmartliteControlUUID, String characteristicSmartliteSettingsUUID, byte[] value,IPushListener listener);
+    public IGattOperation writeCharacteristic(String serviceSmartliteControlUUID, String characteristicSmartliteSettingsUUID, byte[] value,IPushListener listener);
+
+    /**
+     * write to a characteristic with a specific priority class
+     * @param service
+     * @param charac
+     * @param value
+     * @param priority priority class (see GattPriority)
+     */
+    public IGattOperation writeCharacteristic(String service, String charac, byte[] value, int priority, IPushListener listener);
 
     /**
-     * read from a characteristic
+     * read from a characteristic. Concurrent reads of the same characteristic share the same operation and a fresh
+     * cached value is returned without any read when a TTL is set for this characteristic
+     *
      * @param serviceName
      * @param characteristicName
+     * @return future of value read (failed future if read can not be issued)
      */
-    public void readCharacteristic(String serviceName, String characteristicName);
+    public GattFuture<byte[]> readCharacteristic(String serviceName, String characteristicName);
+
+    /**
+     * set time to live of cached value of a characteristic (cache is also fed by notifications)
+     *
+     * @param characteristicName characteristic uid
+     * @param ttl                time to live in milliseconds (0 to disable)
+     */
+    public void setReadCacheTtl(String characteristicName, long ttl);
+
+    /**
+     * notification queue of this device (policy and drop counters)
+     *
+     * @return
+     */
+    public NotificationChannel getNotificationChannel();
+
+    /**
+     * ATT MTU negotiated for this connection
+     *
+     * @return
+     */
+    public int getMtu();
 
     public void enableDisableNotification(UUID service, UUID charac, boolean enable);
 
@@ -75,4 +131,9 @@ public interface IBluetoothDeviceConn {
     public IDevice getDevice();
 
     public void disconnect();
+
+    /**
+     * close gatt client : connection goes back to idle state and pending operations are cancelled
+     */
+    public void close();
 }
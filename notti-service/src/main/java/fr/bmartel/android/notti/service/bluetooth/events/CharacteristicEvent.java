@@ -0,0 +1,63 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.events;
+
+import java.util.UUID;
+
+/**
+ * Characteristic value notified by a device
+ *
+ * @author Bertrand Martel
+ */
+public class CharacteristicEvent {
+
+    private final String deviceAddress;
+
+    private final UUID uid;
+
+    private final byte[] value;
+
+    /**
+     * @param deviceAddress device address
+     * @param uid           characteristic uid
+     * @param value         value (owned by this event)
+     */
+    public CharacteristicEvent(String deviceAddress, UUID uid, byte[] value) {
+        this.deviceAddress = deviceAddress;
+        this.uid = uid;
+        this.value = value;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public UUID getUid() {
+        return uid;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+}
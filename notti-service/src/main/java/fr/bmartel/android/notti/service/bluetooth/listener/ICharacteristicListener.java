@@ -25,6 +25,8 @@ package fr.bmartel.android.notti.service.bluetooth.listener;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import java.util.UUID;
+
 /**
  * Characteritic listener template to be used in device implementation
  *
@@ -40,11 +42,13 @@ public interface ICharacteristicListener {
     public void onCharacteristicReadReceived(BluetoothGattCharacteristic charac);
 
     /**
-     * called chane onCharacteristicChange() gatt callback has been received
+     * called when a notification has been received, on notification executor
      *
-     * @param charac characteristic whose value has changed
+     * @param uid    characteristic whose value has changed
+     * @param data   payload array (recycled after this call)
+     * @param length payload length
      */
-    public void onCharacteristicChangeReceived(BluetoothGattCharacteristic charac);
+    public void onCharacteristicChangeReceived(UUID uid, byte[] data, int length);
 
     /**
      * called when onCharacteristicWrite() gatt callback is received
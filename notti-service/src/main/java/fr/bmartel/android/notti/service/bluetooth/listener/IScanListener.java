@@ -37,4 +37,11 @@ public interface IScanListener {
     public void onScanStart();
 
     public void onScanEnd();
+
+    /**
+     * scan couldnt be started by controller (scan is not running)
+     *
+     * @param errorCode scan error code
+     */
+    public void onScanFailed(int errorCode);
 }
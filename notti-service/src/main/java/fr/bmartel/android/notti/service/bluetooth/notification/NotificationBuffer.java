@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notification;
+
+import java.util.UUID;
+
+/**
+ * Pooled copy of a notification payload
+ *
+ * @author Bertrand Martel
+ */
+public class NotificationBuffer {
+
+    /**
+     * default capacity (default ATT MTU payload)
+     */
+    public final static int DEFAULT_CAPACITY = 20;
+
+    private UUID uid;
+
+    private byte[] data = new byte[DEFAULT_CAPACITY];
+
+    private int length = 0;
+
+    private long timestamp = 0;
+
+    /**
+     * copy notification value into this buffer
+     *
+     * @param uid   characteristic uid
+     * @param value notified value
+     */
+    void set(UUID uid, byte[] value) {
+        this.uid = uid;
+        if (value.length > data.length) {
+            data = new byte[value.length];
+        }
+        System.arraycopy(value, 0, data, 0, value.length);
+        length = value.length;
+        timestamp = System.currentTimeMillis();
+    }
+
+    public UUID getUid() {
+        return uid;
+    }
+
+    /**
+     * payload array : only the first getLength() bytes are valid
+     *
+     * @return
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
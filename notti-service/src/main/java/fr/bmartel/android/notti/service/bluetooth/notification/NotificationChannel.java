@@ -0,0 +1,247 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notification;
+
+import android.util.Log;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.bmartel.android.notti.service.utils.SpscQueue;
+
+/**
+ * Per device notification queue between gatt callback thread (producer) and notification executor (consumer)
+ * <p/>
+ * Payloads are copied into pooled buffers that are given back by the consumer through a second SPSC queue, so
+ * steady state delivery does not allocate. The producer never blocks : when the queue is full the notification is
+ * dropped (POLICY_DROP) or kept in a single overflow slot overwritten by later notifications (POLICY_COALESCE).
+ *
+ * @author Bertrand Martel
+ */
+public class NotificationChannel {
+
+    private final static String TAG = NotificationChannel.class.getName();
+
+    private final SpscQueue<NotificationBuffer> queue;
+
+    /**
+     * buffers given back by consumer
+     */
+    private final SpscQueue<NotificationBuffer> freeList;
+
+    /**
+     * latest notification received while queue was full (POLICY_COALESCE)
+     */
+    private final AtomicReference<NotificationBuffer> overflow = new AtomicReference<>();
+
+    /**
+     * buffer owned by producer, replaced in overflow slot
+     */
+    private NotificationBuffer spare = null;
+
+    /**
+     * consumer side batch (used for coalescing)
+     */
+    private final NotificationBuffer[] batch;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final Executor executor;
+
+    private final INotificationListener listener;
+
+    private volatile int policy = NotificationPolicy.POLICY_DROP;
+
+    /**
+     * counters written by a single thread
+     */
+    private volatile long receivedCount = 0;
+
+    private volatile long droppedCount = 0;
+
+    /**
+     * overflow values replaced by producer
+     */
+    private volatile long replacedCount = 0;
+
+    /**
+     * values skipped by consumer
+     */
+    private volatile long coalescedCount = 0;
+
+    private volatile long deliveredCount = 0;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    NotificationChannel(Executor executor, int capacity, INotificationListener listener) {
+        this.executor = executor;
+        this.listener = listener;
+        queue = new SpscQueue<>(capacity);
+        freeList = new SpscQueue<>(queue.capacity() + 2);
+        batch = new NotificationBuffer[queue.capacity() + 1];
+    }
+
+    public void setPolicy(int policy) {
+        this.policy = policy;
+    }
+
+    public int getPolicy() {
+        return policy;
+    }
+
+    /**
+     * producer side : copy notification value and schedule its delivery. Must be called from gatt callback thread
+     *
+     * @param uid   characteristic uid
+     * @param value notified value
+     * @return false if notification has been dropped
+     */
+    public boolean offer(UUID uid, byte[] value) {
+
+        receivedCount++;
+
+        NotificationBuffer buffer = spare;
+        spare = null;
+        if (buffer == null) {
+            buffer = freeList.poll();
+            if (buffer == null) {
+                buffer = new NotificationBuffer();
+            }
+        }
+        buffer.set(uid, value);
+
+        boolean queued = false;
+
+        if (policy == NotificationPolicy.POLICY_COALESCE) {
+
+            //while overflow slot is used, newer values go to this slot to keep ordering
+            if (overflow.get() != null || !queue.offer(buffer)) {
+                NotificationBuffer previous = overflow.getAndSet(buffer);
+                if (previous != null) {
+                    replacedCount++;
+                    spare = previous;
+                }
+            }
+            queued = true;
+        } else if (queue.offer(buffer)) {
+            queued = true;
+        } else {
+            droppedCount++;
+            spare = buffer;
+        }
+        if (queued && scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+        return queued;
+    }
+
+    /**
+     * consumer side : deliver pending notifications
+     */
+    private void drain() {
+
+        do {
+            int count = 0;
+            NotificationBuffer buffer;
+
+            while (count < queue.capacity() && (buffer = queue.poll()) != null) {
+                batch[count++] = buffer;
+            }
+            buffer = overflow.getAndSet(null);
+            if (buffer != null) {
+                batch[count++] = buffer;
+            }
+
+            boolean coalesce = policy == NotificationPolicy.POLICY_COALESCE;
+
+            for (int i = 0; i < count; i++) {
+
+                NotificationBuffer current = batch[i];
+                batch[i] = null;
+
+                if (coalesce && hasNewer(current.getUid(), i + 1, count)) {
+                    coalescedCount++;
+                } else {
+                    try {
+                        listener.onNotification(current.getUid(), current.getData(), current.getLength());
+                    } catch (Exception e) {
+                        Log.e(TAG, "notification listener error", e);
+                    }
+                    deliveredCount++;
+                }
+                freeList.offer(current);
+            }
+
+            scheduled.set(false);
+
+            //notifications received after last poll but before scheduled was reset
+        } while ((!queue.isEmpty() || overflow.get() != null) && scheduled.compareAndSet(false, true));
+    }
+
+    private boolean hasNewer(UUID uid, int from, int count) {
+        for (int i = from; i < count; i++) {
+            if (batch[i].getUid().equals(uid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * number of notifications dropped because queue was full (POLICY_DROP)
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * number of notifications replaced by a newer value of the same characteristic (POLICY_COALESCE)
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return replacedCount + coalescedCount;
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+}
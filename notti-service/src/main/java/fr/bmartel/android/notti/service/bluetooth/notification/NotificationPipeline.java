@@ -0,0 +1,84 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notification;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers notifications of all devices on a dedicated executor so that listeners never run on gatt callback threads
+ *
+ * @author Bertrand Martel
+ */
+public class NotificationPipeline {
+
+    /**
+     * default number of pending notifications per device
+     */
+    public final static int DEFAULT_CAPACITY = 64;
+
+    // set init pool size
+    private static final int CORE_POOL_SIZE = 1;
+
+    // set max pool size
+    private static final int MAXIMUM_POOL_SIZE = 1;
+
+    // Sets the amount of time an idle thread will wait for a task before terminating
+    private static final int KEEP_ALIVE_TIME = 5;
+
+    LinkedBlockingQueue notificationWorkingQueue = new LinkedBlockingQueue<Runnable>();
+
+    ThreadPoolExecutor notificationThreadPool = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE,
+            KEEP_ALIVE_TIME, TimeUnit.SECONDS, notificationWorkingQueue);
+
+    /**
+     * create a notification channel for a device
+     *
+     * @param listener notification consumer
+     * @return
+     */
+    public NotificationChannel createChannel(INotificationListener listener) {
+        return createChannel(DEFAULT_CAPACITY, listener);
+    }
+
+    /**
+     * create a notification channel for a device
+     *
+     * @param capacity maximum number of pending notifications
+     * @param listener notification consumer
+     * @return
+     */
+    public NotificationChannel createChannel(int capacity, INotificationListener listener) {
+        return new NotificationChannel(notificationThreadPool, capacity, listener);
+    }
+
+    /**
+     * stop notification executor : notifications received afterwards are dropped
+     */
+    public void close() {
+        notificationThreadPool.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        notificationThreadPool.shutdown();
+    }
+}
@@ -37,6 +37,15 @@ public interface INottiDevice {
      */
     public void setOnOff(boolean ledState,IPushListener listener);
 
+    /**
+     * switch notti ON/OFF
+     *
+     * @param ledState
+     * @param force
+     *      write even if lamp is known to be in this state
+     */
+    public void setOnOff(boolean ledState,boolean force,IPushListener listener);
+
     /**
      * Set RGB color
      *
@@ -46,6 +55,14 @@ public interface INottiDevice {
      */
     public void setRGBColor(int red,int green,int blue,IPushListener listener);
 
+    /**
+     * Set RGB color
+     *
+     * @param force
+     *      write even if lamp is known to display this color
+     */
+    public void setRGBColor(int red,int green,int blue,boolean force,IPushListener listener);
+
     /**
      * Set intensity for a specific color
      *
@@ -56,4 +73,26 @@ public interface INottiDevice {
      * @param blue
      */
     public void setLuminosityForColor(int value,int red,int green,int blue,IPushListener listener);
+
+    /**
+     * Set intensity for a specific color
+     *
+     * @param force
+     *      write even if lamp is known to display the resulting color
+     */
+    public void setLuminosityForColor(int value,int red,int green,int blue,boolean force,IPushListener listener);
+
+    /**
+     * number of writes skipped because lamp already displayed requested color
+     *
+     * @return
+     */
+    public long getSuppressedWriteCount();
+
+    /**
+     * set listener for decoded notifications
+     *
+     * @param listener
+     */
+    public void setFrameListener(INottiFrameListener listener);
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notti;
+
+/**
+ * Listener for decoded Notti notification frames, called on notification executor
+ * <p/>
+ * Frame is a flyweight reused for every notification : it must not be kept after the call returns.
+ *
+ * @author Bertrand Martel
+ */
+public interface INottiFrameListener {
+
+    /**
+     * called when a color report has been received
+     *
+     * @param frame decoded frame
+     */
+    public void onColorReport(NottiFrame frame);
+
+    /**
+     * called when an acknowledgement has been received
+     *
+     * @param frame decoded frame
+     */
+    public void onAck(NottiFrame frame);
+
+    /**
+     * called for frames that couldnt be decoded
+     *
+     * @param frame raw frame
+     */
+    public void onUnknownFrame(NottiFrame frame);
+}
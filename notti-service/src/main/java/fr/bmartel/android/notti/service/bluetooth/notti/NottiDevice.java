@@ -29,12 +29,17 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
+import fr.bmartel.android.notti.service.bluetooth.GattPriority;
 import fr.bmartel.android.notti.service.bluetooth.listener.ICharacteristicListener;
 import fr.bmartel.android.notti.service.bluetooth.listener.IDeviceInitListener;
 import fr.bmartel.android.notti.service.bluetooth.connection.BluetoothDeviceAbstr;
 import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceConn;
 import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
+import fr.bmartel.android.notti.service.bluetooth.notification.NotificationPolicy;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRecord;
+import fr.bmartel.android.notti.service.bluetooth.registry.DeviceRegistry;
 
 /**
  * Dotti Bluetooth device management
@@ -45,7 +50,12 @@ public class NottiDevice extends BluetoothDeviceAbstr implements INottiDevice {
 
     private String TAG = NottiDevice.this.getClass().getName();
 
-    private String notti_service = "0000fff0-0000-1000-8000-00805f9b34fb";
+    /**
+     * Notti service uuid (advertised)
+     */
+    public final static String SERVICE_UUID = "0000fff0-0000-1000-8000-00805f9b34fb";
+
+    private String notti_service = SERVICE_UUID;
     private String notti_charac = "0000fff3-0000-1000-8000-00805f9b34fb";
     private String notti_charac2 = "0000fff4-0000-1000-8000-00805f9b34fb";
 
@@ -53,22 +63,101 @@ public class NottiDevice extends BluetoothDeviceAbstr implements INottiDevice {
 
     private boolean init = false;
 
+    /**
+     * typed decoding of notifications
+     */
+    private final NottiFrameDecoder frameDecoder = new NottiFrameDecoder(UUID.fromString(notti_charac2));
+
+    private volatile INottiFrameListener frameListener = null;
+
+    /**
+     * gamma used to make brightness perceptually linear
+     */
+    private final static double BRIGHTNESS_GAMMA = 2.2;
+
+    /**
+     * 255/100 in Q8 fixed point
+     */
+    private final static int PERCENT_TO_LEVEL = 653;
+
+    /**
+     * color component scale in Q16 fixed point (0-65536) for each perceived brightness level 0-255 : Q8 is too coarse
+     * for the low end of the gamma curve. Scale is at least 1 for nonzero levels
+     */
+    private final static int[] BRIGHTNESS_TABLE = new int[256];
+
+    static {
+        for (int i = 1; i < BRIGHTNESS_TABLE.length; i++) {
+            BRIGHTNESS_TABLE[i] = Math.max(1, (int) Math.round(Math.pow(i / 255.0, BRIGHTNESS_GAMMA) * 65536));
+        }
+    }
+
+    private final static NottiFramePacker FRAME_PACKER = new NottiFramePacker();
+
+    /**
+     * unknown device color
+     */
+    private final static int COLOR_UNKNOWN = -1;
+
+    /**
+     * shadow of device color (0xRRGGBB) : last acknowledged write or reported color
+     */
+    private int shadowColor = COLOR_UNKNOWN;
+
+    /**
+     * color of last write request
+     */
+    private int requestedColor = COLOR_UNKNOWN;
+
+    private final Object shadowLock = new Object();
+
+    private final AtomicLong suppressedWriteCount = new AtomicLong(0);
+
     /**
      * @param conn
      */
     @SuppressLint("NewApi")
     public NottiDevice(IBluetoothDeviceConn conn) {
         super(conn);
-        setCharacteristicListener(new ICharacteristicListener() {
+        //only latest lamp state matters
+        conn.getNotificationChannel().setPolicy(NotificationPolicy.POLICY_COALESCE);
+        frameDecoder.setListener(new INottiFrameListener() {
+            @Override
+            public void onColorReport(NottiFrame frame) {
+                onColorReported(frame.getRGB());
+                INottiFrameListener listener = frameListener;
+                if (listener != null) {
+                    listener.onColorReport(frame);
+                }
+            }
 
             @Override
-            public void onCharacteristicReadReceived(BluetoothGattCharacteristic charac) {
+            public void onAck(NottiFrame frame) {
+                INottiFrameListener listener = frameListener;
+                if (listener != null) {
+                    listener.onAck(frame);
+                }
+            }
 
+            @Override
+            public void onUnknownFrame(NottiFrame frame) {
+                INottiFrameListener listener = frameListener;
+                if (listener != null) {
+                    listener.onUnknownFrame(frame);
+                }
             }
+        });
+        //color reports are notified on fff3, acknowledgements on fff4
+        addCharacteristicListener(new ICharacteristicListener() {
 
             @Override
-            public void onCharacteristicChangeReceived(BluetoothGattCharacteristic charac) {
+            public void onCharacteristicReadReceived(BluetoothGattCharacteristic charac) {
+
+            }
 
+            @Override
+            public void onCharacteristicChangeReceived(UUID uid, byte[] data, int length) {
+                frameDecoder.decode(uid, data, length);
             }
 
             @Override
@@ -83,6 +172,9 @@ public class NottiDevice extends BluetoothDeviceAbstr implements INottiDevice {
 
         Log.i(TAG, "initializing notti");
 
+        //pending color commands are superseded by newer ones
+        conn.getManager().registerFramePacker(notti_charac, FRAME_PACKER);
+
         conn.enableDisableNotification(UUID.fromString(notti_service), UUID.fromString(notti_charac), true);
         conn.enableDisableNotification(UUID.fromString(notti_service), UUID.fromString(notti_charac2), true);
 
@@ -98,36 +190,156 @@ public class NottiDevice extends BluetoothDeviceAbstr implements INottiDevice {
      */
     @Override
     public void setOnOff(boolean state, IPushListener listener) {
+        setOnOff(state, false, listener);
+    }
+
+    @Override
+    public void setOnOff(boolean state, boolean force, IPushListener listener) {
 
         if (state)
-            getConn().writeCharacteristic(notti_service, notti_charac, new byte[]{(byte) 6, (byte) 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, listener);
+            writeColor(0xFF, 0xFF, 0xFF, force, listener);
         else
-            getConn().writeCharacteristic(notti_service, notti_charac, new byte[]{(byte) 6, (byte) 1, (byte) 0x00, (byte) 0x00, (byte) 0x00}, listener);
-
+            writeColor(0x00, 0x00, 0x00, force, listener);
     }
 
     @Override
     public void setRGBColor(int red, int green, int blue, IPushListener listener) {
+        setRGBColor(red, green, blue, false, listener);
+    }
 
-        getConn().writeCharacteristic(notti_service, notti_charac, new byte[]{(byte) 6, (byte) 1, (byte) red, (byte) green, (byte) blue}, listener);
-
-
+    @Override
+    public void setRGBColor(int red, int green, int blue, boolean force, IPushListener listener) {
+        writeColor(red, green, blue, force, listener);
     }
 
     @Override
     public void setLuminosityForColor(int value, int red, int green, int blue, IPushListener listener) {
+        setLuminosityForColor(value, red, green, blue, false, listener);
+    }
+
+    @Override
+    public void setLuminosityForColor(int value, int red, int green, int blue, boolean force, IPushListener listener) {
 
         if (value >= 0 && value <= 100) {
 
-            value = 100 - value;
+            //percent to 0-255 brightness level (255/100 in Q8)
+            int scale = BRIGHTNESS_TABLE[(value * PERCENT_TO_LEVEL) >> 8];
 
-            getConn().writeCharacteristic(notti_service, notti_charac, new byte[]{(byte) 6, (byte) 1, (byte) ((1f - value / 100f) * red), (byte) ((1f - value / 100f) * green), (byte) ((1f - value / 100f) * blue)}, listener);
+            writeColor(scaleComponent(red, scale), scaleComponent(green, scale), scaleComponent(blue, scale), force, listener);
 
         } else {
             Log.e(TAG, "Error luminosity must be set between 0 and 100");
         }
     }
 
+    /**
+     * scale a color component, rounding up : a nonzero component at nonzero luminosity never goes to 0
+     *
+     * @param component color component 0-255
+     * @param scale     Q16 scale
+     * @return scaled component
+     */
+    private static int scaleComponent(int component, int scale) {
+        return ((component & 0xFF) * scale + 0xFFFF) >> 16;
+    }
+
+    /**
+     * write a color frame unless device is known to already display this color
+     *
+     * @param red
+     * @param green
+     * @param blue
+     * @param force    write even if color is unchanged
+     * @param listener
+     */
+    private void writeColor(int red, int green, int blue, boolean force, final IPushListener listener) {
+
+        final int color = ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+
+        synchronized (shadowLock) {
+            if (!force && color == shadowColor && color == requestedColor) {
+                suppressedWriteCount.incrementAndGet();
+                if (listener != null) {
+                    listener.onPushSuccess();
+                }
+                return;
+            }
+            requestedColor = color;
+        }
+
+        getConn().writeCharacteristic(notti_service, notti_charac, new byte[]{(byte) 6, (byte) 1, (byte) red, (byte) green, (byte) blue}, GattPriority.PRIORITY_CONTROL, new IPushListener() {
+            @Override
+            public void onPushFailure() {
+                synchronized (shadowLock) {
+                    //device state is uncertain
+                    if (requestedColor == color) {
+                        shadowColor = COLOR_UNKNOWN;
+                    }
+                }
+                if (listener != null) {
+                    listener.onPushFailure();
+                }
+            }
+
+            @Override
+            public void onPushSuccess() {
+                synchronized (shadowLock) {
+                    shadowColor = color;
+                }
+                persistColor(color);
+                if (listener != null) {
+                    listener.onPushSuccess();
+                }
+            }
+        });
+    }
+
+    /**
+     * color reported by device notification
+     *
+     * @param color 0xRRGGBB
+     */
+    private void onColorReported(int color) {
+        synchronized (shadowLock) {
+            shadowColor = color;
+        }
+        persistColor(color);
+    }
+
+    /**
+     * save last lamp color in device registry : only memory is updated here (gatt worker or notification thread),
+     * record is written shortly after on manager timer thread
+     *
+     * @param color 0xRRGGBB
+     */
+    private void persistColor(int color) {
+
+        DeviceRegistry registry = conn.getManager().getDeviceRegistry();
+        DeviceRecord record = registry.get(conn.getAddress());
+
+        if (record != null && record.getColor() != color) {
+            record.setColor(color);
+            if (registry.update(record)) {
+                conn.getManager().scheduleRegistryFlush();
+            }
+        }
+    }
+
+    /**
+     * number of writes skipped because device already had requested color
+     *
+     * @return
+     */
+    @Override
+    public long getSuppressedWriteCount() {
+        return suppressedWriteCount.get();
+    }
+
+    @Override
+    public void setFrameListener(INottiFrameListener listener) {
+        frameListener = listener;
+    }
+
     @Override
     public boolean isInit() {
         return init;
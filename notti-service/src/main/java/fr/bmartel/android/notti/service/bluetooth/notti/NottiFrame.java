@@ -0,0 +1,168 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notti;
+
+import java.util.UUID;
+
+/**
+ * Flyweight view over a Notti notification frame
+ * <p/>
+ * A frame is not copied : accessors read the notification buffer directly, so a frame is only valid during the
+ * listener call it is given to. Notified frames are assumed to use the same layout as the commands written by
+ * NottiDevice : command id, sub command, payload (red, green, blue for color frames). Frames that dont match it are
+ * reported as unknown with their raw bytes.
+ *
+ * @author Bertrand Martel
+ */
+public class NottiFrame {
+
+    /**
+     * frame that couldnt be decoded
+     */
+    public final static int TYPE_UNKNOWN = 0;
+
+    /**
+     * current color (on/off state is read from it, see isOn)
+     */
+    public final static int TYPE_COLOR_REPORT = 2;
+
+    /**
+     * acknowledgement received on response characteristic (command id, optional status)
+     */
+    public final static int TYPE_ACK = 3;
+
+    public final static int COMMAND_COLOR = 6;
+
+    public final static int SUB_COMMAND_COLOR = 1;
+
+    private final static int COLOR_FRAME_LENGTH = 5;
+
+    private UUID uid;
+
+    private byte[] data;
+
+    private int length;
+
+    private int type = TYPE_UNKNOWN;
+
+    NottiFrame() {
+    }
+
+    /**
+     * point this frame to a notification payload and classify it
+     *
+     * @param uid    characteristic uid
+     * @param data   payload array
+     * @param length payload length
+     * @param isAck  true if payload comes from response characteristic
+     * @return this frame
+     */
+    NottiFrame wrap(UUID uid, byte[] data, int length, boolean isAck) {
+        this.uid = uid;
+        this.data = data;
+        this.length = length;
+
+        if (isAck) {
+            type = length > 0 ? TYPE_ACK : TYPE_UNKNOWN;
+        } else if (length >= COLOR_FRAME_LENGTH && (data[0] & 0xFF) == COMMAND_COLOR && (data[1] & 0xFF) == SUB_COMMAND_COLOR) {
+            type = TYPE_COLOR_REPORT;
+        } else {
+            type = TYPE_UNKNOWN;
+        }
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public UUID getUid() {
+        return uid;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * raw byte at a given index
+     *
+     * @param index byte index
+     * @return unsigned byte value
+     */
+    public int getByte(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of frame length " + length);
+        }
+        return data[index] & 0xFF;
+    }
+
+    /**
+     * command id (color frames and ack)
+     *
+     * @return
+     */
+    public int getCommand() {
+        return length > 0 ? data[0] & 0xFF : -1;
+    }
+
+    /**
+     * ack status if present
+     *
+     * @return status or -1
+     */
+    public int getStatus() {
+        return (type == TYPE_ACK && length > 1) ? data[1] & 0xFF : -1;
+    }
+
+    public int getRed() {
+        return (type == TYPE_COLOR_REPORT) ? data[2] & 0xFF : 0;
+    }
+
+    public int getGreen() {
+        return (type == TYPE_COLOR_REPORT) ? data[3] & 0xFF : 0;
+    }
+
+    public int getBlue() {
+        return (type == TYPE_COLOR_REPORT) ? data[4] & 0xFF : 0;
+    }
+
+    /**
+     * color packed as 0xRRGGBB
+     *
+     * @return
+     */
+    public int getRGB() {
+        return (getRed() << 16) | (getGreen() << 8) | getBlue();
+    }
+
+    /**
+     * lamp state of a color report
+     *
+     * @return true if any color component is lit
+     */
+    public boolean isOn() {
+        return getRGB() != 0;
+    }
+}
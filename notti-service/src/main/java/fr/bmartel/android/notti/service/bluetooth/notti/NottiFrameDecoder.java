@@ -0,0 +1,83 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notti;
+
+import java.util.UUID;
+
+/**
+ * Decode Notti notifications into typed frames without allocation
+ * <p/>
+ * A single flyweight frame is reused : decoder must be called from one thread at a time (notification executor).
+ *
+ * @author Bertrand Martel
+ */
+public class NottiFrameDecoder {
+
+    private final UUID responseUid;
+
+    private final NottiFrame frame = new NottiFrame();
+
+    private volatile INottiFrameListener listener = null;
+
+    /**
+     * @param responseUid characteristic on which acknowledgements are notified
+     */
+    public NottiFrameDecoder(UUID responseUid) {
+        this.responseUid = responseUid;
+    }
+
+    public void setListener(INottiFrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * decode a notification and dispatch it to listener
+     *
+     * @param uid    characteristic uid
+     * @param data   payload array
+     * @param length payload length
+     * @return decoded frame type
+     */
+    public int decode(UUID uid, byte[] data, int length) {
+
+        frame.wrap(uid, data, length, responseUid.equals(uid));
+
+        INottiFrameListener current = listener;
+
+        if (current != null) {
+            switch (frame.getType()) {
+                case NottiFrame.TYPE_COLOR_REPORT:
+                    current.onColorReport(frame);
+                    break;
+                case NottiFrame.TYPE_ACK:
+                    current.onAck(frame);
+                    break;
+                default:
+                    current.onUnknownFrame(frame);
+                    break;
+            }
+        }
+        return frame.getType();
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notti;
+
+import fr.bmartel.android.notti.service.bluetooth.IFramePacker;
+
+/**
+ * Notti command packer : a color command replaces the state set by any pending color command, so a pending color
+ * frame is replaced by the latest one (last wins). Replaced color writes are reported as failed, never as written
+ *
+ * @author Bertrand Martel
+ */
+public class NottiFramePacker implements IFramePacker {
+
+    private final static int COLOR_FRAME_LENGTH = 5;
+
+    @Override
+    public byte[] pack(byte[] pending, byte[] next, int maxPayload) {
+
+        if (isColorFrame(pending) && isColorFrame(next) && next.length <= maxPayload) {
+            return next;
+        }
+        return null;
+    }
+
+    private static boolean isColorFrame(byte[] frame) {
+        return frame != null && frame.length == COLOR_FRAME_LENGTH
+                && (frame[0] & 0xFF) == NottiFrame.COMMAND_COLOR && (frame[1] & 0xFF) == NottiFrame.SUB_COMMAND_COLOR;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.record;
+
+/**
+ * One entry of a recorded gatt session : an operation issued by the manager or a callback received from the stack
+ *
+ * @author Bertrand Martel
+ */
+public class GattRecord {
+
+    /**
+     * characteristic write issued
+     */
+    public final static byte OP_WRITE = 1;
+
+    /**
+     * characteristic read issued
+     */
+    public final static byte OP_READ = 2;
+
+    /**
+     * descriptor write issued (uid is the characteristic owning the descriptor)
+     */
+    public final static byte OP_WRITE_DESCRIPTOR = 3;
+
+    /**
+     * no callback received for the last operation before timeout
+     */
+    public final static byte OP_TIMEOUT = 4;
+
+    /**
+     * onCharacteristicWrite() received
+     */
+    public final static byte CB_WRITE = 10;
+
+    /**
+     * onCharacteristicRead() received
+     */
+    public final static byte CB_READ = 11;
+
+    /**
+     * onDescriptorWrite() received
+     */
+    public final static byte CB_WRITE_DESCRIPTOR = 12;
+
+    /**
+     * onCharacteristicChanged() received
+     */
+    public final static byte CB_CHANGED = 13;
+
+    /**
+     * onConnectionStateChange() received (status field holds the new state)
+     */
+    public final static byte CB_CONNECTION_STATE = 14;
+
+    private byte type;
+
+    private long time;
+
+    private String address;
+
+    private String uid;
+
+    private int status;
+
+    private byte[] value;
+
+    public GattRecord(byte type, long time, String address, String uid, int status, byte[] value) {
+        this.type = type;
+        this.time = time;
+        this.address = address;
+        this.uid = uid;
+        this.status = status;
+        this.value = value;
+    }
+
+    /**
+     * check if this record is an operation issued to the device (as opposed to a callback)
+     *
+     * @return true if operation
+     */
+    public boolean isOperation() {
+        return type == OP_WRITE || type == OP_READ || type == OP_WRITE_DESCRIPTOR;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * time elapsed since session start in milliseconds
+     *
+     * @return
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.record;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Read a gatt session file written by GattRecorder
+ *
+ * @author Bertrand Martel
+ */
+public class GattRecordReader {
+
+    private DataInputStream input = null;
+
+    private ArrayList<String> addressTable = new ArrayList<>();
+
+    private ArrayList<String> uidTable = new ArrayList<>();
+
+    private long time = 0;
+
+    public GattRecordReader(File file) throws IOException {
+
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        if (input.readInt() != GattRecorder.MAGIC) {
+            input.close();
+            throw new IOException("not a gatt session file");
+        }
+        int version = input.readUnsignedByte();
+        if (version != GattRecorder.VERSION) {
+            input.close();
+            throw new IOException("unsupported gatt session version " + version);
+        }
+    }
+
+    /**
+     * read next record
+     *
+     * @return next record or null if end of file has been reached
+     * @throws IOException
+     */
+    public GattRecord next() throws IOException {
+
+        int type;
+        try {
+            type = input.readByte();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        time += readVarInt(input);
+
+        String address = readRef(input, addressTable);
+        String uid = readRef(input, uidTable);
+        int status = readVarInt(input);
+
+        byte[] value = null;
+        int length = readVarInt(input);
+        if (length > 0) {
+            value = new byte[length];
+            input.readFully(value);
+        }
+        return new GattRecord((byte) type, time, address, uid, status, value);
+    }
+
+    public void close() {
+        try {
+            input.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String readRef(DataInputStream in, ArrayList<String> table) throws IOException {
+
+        int index = in.readUnsignedByte();
+
+        if (index == GattRecorder.NO_REF) {
+            return null;
+        } else if (index < table.size()) {
+            return table.get(index);
+        } else if (index == table.size()) {
+            String value = in.readUTF();
+            table.add(value);
+            return value;
+        }
+        throw new IOException("inconsistent record table reference " + index);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
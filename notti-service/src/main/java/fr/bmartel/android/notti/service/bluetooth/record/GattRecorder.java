@@ -0,0 +1,169 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.record;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Record gatt operations and callbacks with their timing into a compact binary file
+ * <p/>
+ * File layout : header (magic, version) followed by records made of
+ * type (1 byte), time delta in ms since previous record (varint), address ref (1 byte),
+ * uid ref (1 byte), status (varint), value length (varint) and value bytes.
+ * <p/>
+ * Addresses and uids are interned : the first occurrence of a string is written inline right after its new index.
+ *
+ * @author Bertrand Martel
+ */
+public class GattRecorder {
+
+    private final static String TAG = GattRecorder.class.getName();
+
+    public final static int MAGIC = 0x4E475253;
+
+    public final static int VERSION = 1;
+
+    /**
+     * reference used for a null address or uid
+     */
+    final static int NO_REF = 0xFF;
+
+    private DataOutputStream output = null;
+
+    private ArrayList<String> addressTable = new ArrayList<>();
+
+    private ArrayList<String> uidTable = new ArrayList<>();
+
+    private long startTime = 0;
+
+    private long lastTime = 0;
+
+    private int recordCount = 0;
+
+    public GattRecorder(File file) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        startTime = elapsedMillis();
+        lastTime = startTime;
+    }
+
+    /**
+     * append a record to the session file
+     *
+     * @param type    record type (see GattRecord)
+     * @param address device address
+     * @param uid     characteristic or descriptor uid
+     * @param status  gatt status or connection state
+     * @param value   value written / received (may be null)
+     */
+    public synchronized void record(byte type, String address, String uid, int status, byte[] value) {
+
+        if (output == null) {
+            return;
+        }
+
+        long now = elapsedMillis();
+
+        try {
+            output.writeByte(type);
+            writeVarInt(output, (int) (now - lastTime));
+            writeRef(output, addressTable, address);
+            writeRef(output, uidTable, uid);
+            writeVarInt(output, status);
+            if (value != null) {
+                writeVarInt(output, value.length);
+                output.write(value);
+            } else {
+                writeVarInt(output, 0);
+            }
+            lastTime = now;
+            recordCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "error writing gatt record, recording stopped", e);
+            close();
+        }
+    }
+
+    /**
+     * monotonic time in ms : record deltas must not jump with wall clock changes
+     *
+     * @return
+     */
+    static long elapsedMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * flush and close session file
+     */
+    public synchronized void close() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            output = null;
+            Log.i(TAG, "recorded " + recordCount + " gatt records in " + (lastTime - startTime) + "ms");
+        }
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    private static void writeRef(DataOutputStream out, ArrayList<String> table, String value) throws IOException {
+
+        if (value == null) {
+            out.writeByte(NO_REF);
+            return;
+        }
+        int index = table.indexOf(value);
+        if (index != -1) {
+            out.writeByte(index);
+        } else if (table.size() < NO_REF) {
+            out.writeByte(table.size());
+            out.writeUTF(value);
+            table.add(value);
+        } else {
+            throw new IOException("too many distinct entries in record table");
+        }
+    }
+
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
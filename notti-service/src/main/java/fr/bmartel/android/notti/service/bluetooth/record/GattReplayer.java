@@ -0,0 +1,215 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.record;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.bmartel.android.notti.service.bluetooth.BluetoothConst;
+import fr.bmartel.android.notti.service.bluetooth.GattPriority;
+import fr.bmartel.android.notti.service.bluetooth.GattUtils;
+import fr.bmartel.android.notti.service.bluetooth.IBluetoothCustomManager;
+import fr.bmartel.android.notti.service.bluetooth.connection.IBluetoothDeviceConn;
+import fr.bmartel.android.notti.service.bluetooth.listener.IPushListener;
+
+/**
+ * Replay operations of a recorded gatt session through the bluetooth manager, keeping the recorded pacing
+ * <p/>
+ * speed 1 replays at recorded speed, speed 4 replays 4 times faster. Callbacks found in the record are only counted
+ * so that replay result can be compared with recorded session (recorded timeouts, push failures).
+ *
+ * @author Bertrand Martel
+ */
+public class GattReplayer implements Runnable {
+
+    private final static String TAG = GattReplayer.class.getName();
+
+    private IBluetoothCustomManager manager = null;
+
+    private File file = null;
+
+    private float speed = 1f;
+
+    /**
+     * device address all operations are sent to (null to use recorded address)
+     */
+    private String targetAddress = null;
+
+    private volatile boolean running = false;
+
+    private int operationCount = 0;
+
+    private int skippedCount = 0;
+
+    private int recordedTimeoutCount = 0;
+
+    private AtomicInteger pushSuccessCount = new AtomicInteger();
+
+    private AtomicInteger pushFailureCount = new AtomicInteger();
+
+    private long duration = 0;
+
+    public GattReplayer(IBluetoothCustomManager manager, File file, float speed, String targetAddress) {
+        this.manager = manager;
+        this.file = file;
+        this.speed = speed > 0 ? speed : 1f;
+        this.targetAddress = targetAddress;
+    }
+
+    @Override
+    public void run() {
+
+        GattRecordReader reader;
+        try {
+            reader = new GattRecordReader(file);
+        } catch (IOException e) {
+            Log.e(TAG, "cant open gatt session " + file, e);
+            return;
+        }
+
+        running = true;
+        long startTime = GattRecorder.elapsedMillis();
+
+        try {
+            GattRecord record;
+
+            while (running && (record = reader.next()) != null) {
+
+                if (record.getType() == GattRecord.OP_TIMEOUT) {
+                    recordedTimeoutCount++;
+                }
+                if (!record.isOperation()) {
+                    continue;
+                }
+
+                long delay = (long) (record.getTime() / speed) - (GattRecorder.elapsedMillis() - startTime);
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                replay(record);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "error reading gatt session " + file, e);
+        } catch (InterruptedException e) {
+            Log.i(TAG, "gatt session replay interrupted");
+        } finally {
+            reader.close();
+            running = false;
+            duration = GattRecorder.elapsedMillis() - startTime;
+            Log.i(TAG, "replayed " + operationCount + " operations in " + duration + "ms (skipped : " + skippedCount
+                    + ", recorded timeouts : " + recordedTimeoutCount + ")");
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void replay(GattRecord record) {
+
+        String address = (targetAddress != null) ? targetAddress : record.getAddress();
+
+        IBluetoothDeviceConn conn = manager.getConnectionList().get(address);
+
+        if (conn == null || conn.getBluetoothGatt() == null || record.getUid() == null) {
+            skippedCount++;
+            return;
+        }
+
+        BluetoothGatt gatt = conn.getBluetoothGatt();
+
+        switch (record.getType()) {
+            case GattRecord.OP_WRITE:
+                //each recorded write is sent : no packing with following writes and no deadline
+                manager.writeCharacteristic(record.getUid(), record.getValue(), gatt, GattPriority.PRIORITY_FRAME, 0, false, new IPushListener() {
+                    @Override
+                    public void onPushFailure() {
+                        pushFailureCount.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onPushSuccess() {
+                        pushSuccessCount.incrementAndGet();
+                    }
+                });
+                break;
+            case GattRecord.OP_READ:
+                manager.readCharacteristic(record.getUid(), gatt);
+                break;
+            case GattRecord.OP_WRITE_DESCRIPTOR:
+                BluetoothGattCharacteristic charac = GattUtils.getCharacteristic(gatt.getServices(), record.getUid());
+                if (charac == null) {
+                    skippedCount++;
+                    return;
+                }
+                manager.writeDescriptor(BluetoothConst.CLIENT_CHARACTERISTIC_CONFIG, gatt, record.getValue(),
+                        charac.getService().getUuid().toString(), record.getUid());
+                break;
+        }
+        operationCount++;
+    }
+
+    /**
+     * stop replay after current operation
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getOperationCount() {
+        return operationCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    public int getRecordedTimeoutCount() {
+        return recordedTimeoutCount;
+    }
+
+    public int getPushSuccessCount() {
+        return pushSuccessCount.get();
+    }
+
+    public int getPushFailureCount() {
+        return pushFailureCount.get();
+    }
+
+    /**
+     * replay duration in milliseconds
+     *
+     * @return
+     */
+    public long getDuration() {
+        return duration;
+    }
+}
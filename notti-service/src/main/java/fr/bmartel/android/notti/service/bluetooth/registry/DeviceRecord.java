@@ -0,0 +1,125 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.registry;
+
+/**
+ * Persisted state of a device
+ *
+ * @author Bertrand Martel
+ */
+public class DeviceRecord {
+
+    /**
+     * unknown color
+     */
+    public final static int COLOR_UNKNOWN = -1;
+
+    private final String address;
+
+    private String deviceName = "";
+
+    /**
+     * last color (0xRRGGBB)
+     */
+    private int color = COLOR_UNKNOWN;
+
+    private int connectCount = 0;
+
+    private int disconnectCount = 0;
+
+    private long lastConnectionTime = 0;
+
+    private int mtu = 0;
+
+    public DeviceRecord(String address) {
+        this.address = address;
+    }
+
+    /**
+     * copy constructor
+     *
+     * @param record record to copy
+     */
+    public DeviceRecord(DeviceRecord record) {
+        this.address = record.address;
+        this.deviceName = record.deviceName;
+        this.color = record.color;
+        this.connectCount = record.connectCount;
+        this.disconnectCount = record.disconnectCount;
+        this.lastConnectionTime = record.lastConnectionTime;
+        this.mtu = record.mtu;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public void setDeviceName(String deviceName) {
+        this.deviceName = (deviceName != null) ? deviceName : "";
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public void setColor(int color) {
+        this.color = color;
+    }
+
+    public int getConnectCount() {
+        return connectCount;
+    }
+
+    public void setConnectCount(int connectCount) {
+        this.connectCount = connectCount;
+    }
+
+    public int getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    public void setDisconnectCount(int disconnectCount) {
+        this.disconnectCount = disconnectCount;
+    }
+
+    public long getLastConnectionTime() {
+        return lastConnectionTime;
+    }
+
+    public void setLastConnectionTime(long lastConnectionTime) {
+        this.lastConnectionTime = lastConnectionTime;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.registry;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Persistent device registry stored as fixed-size records in a memory-mapped file
+ * <p/>
+ * Every put appends a full record, the last record of an address wins and a tombstone record removes it. Frequent
+ * changes go through add() and update(), which only change memory until next flush. Loading is a single pass over the records.
+ * The file is compacted (live records rewritten) when dead records outnumber live ones.
+ * <p/>
+ * File layout : header (magic, version, record size, record count) followed by RECORD_SIZE bytes records :
+ * <pre>
+ * 0  flags (1 byte)
+ * 1  address (6 bytes)
+ * 7  name length (1 byte)
+ * 8  name UTF-8 (24 bytes)
+ * 32 color (4 bytes)
+ * 36 connect count (4 bytes)
+ * 40 disconnect count (4 bytes)
+ * 44 last connection time (8 bytes)
+ * 52 mtu (2 bytes)
+ * </pre>
+ *
+ * @author Bertrand Martel
+ */
+public class DeviceRegistry {
+
+    private final static String TAG = DeviceRegistry.class.getName();
+
+    private final static int MAGIC = 0x4E445247;
+
+    private final static short VERSION = 1;
+
+    private final static int HEADER_SIZE = 16;
+
+    private final static int RECORD_SIZE = 64;
+
+    private final static int INITIAL_CAPACITY = 64;
+
+    /**
+     * minimum number of records before compaction is considered
+     */
+    private final static int COMPACTION_THRESHOLD = 256;
+
+    private final static int ADDRESS_LENGTH = 6;
+
+    private final static int NAME_LENGTH = 24;
+
+    private final static byte FLAG_LIVE = 1;
+
+    private final static byte FLAG_DELETED = 2;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private RandomAccessFile randomAccessFile = null;
+
+    private MappedByteBuffer buffer = null;
+
+    /**
+     * record capacity of current mapping
+     */
+    private int capacity = 0;
+
+    private int recordCount = 0;
+
+    private final HashMap<String, DeviceRecord> recordList = new HashMap<>();
+
+    /**
+     * devices updated in memory and not written yet
+     */
+    private final HashSet<String> dirtyList = new HashSet<>();
+
+    public DeviceRegistry(File file) {
+        this.file = file;
+    }
+
+    /**
+     * map registry file and load all records
+     *
+     * @return false if registry couldnt be opened (registry is then kept in memory only)
+     */
+    public synchronized boolean load() {
+
+        recordList.clear();
+        dirtyList.clear();
+        recordCount = 0;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+
+            int fileCapacity = (int) Math.max(0, (randomAccessFile.length() - HEADER_SIZE) / RECORD_SIZE);
+
+            map(Math.max(INITIAL_CAPACITY, fileCapacity));
+
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+                //new or incompatible file
+                writeHeader();
+                return true;
+            }
+
+            int count = Math.min(buffer.getInt(8), capacity);
+
+            byte[] address = new byte[ADDRESS_LENGTH];
+            byte[] name = new byte[NAME_LENGTH];
+
+            for (int i = 0; i < count; i++) {
+
+                int offset = HEADER_SIZE + i * RECORD_SIZE;
+                byte flags = buffer.get(offset);
+
+                buffer.position(offset + 1);
+                buffer.get(address);
+                String addressStr = formatAddress(address);
+
+                if (flags == FLAG_DELETED) {
+                    recordList.remove(addressStr);
+                } else if (flags == FLAG_LIVE) {
+                    DeviceRecord record = new DeviceRecord(addressStr);
+                    int nameLength = Math.min(buffer.get(offset + 7) & 0xFF, NAME_LENGTH);
+                    buffer.position(offset + 8);
+                    buffer.get(name, 0, nameLength);
+                    record.setDeviceName(new String(name, 0, nameLength, UTF8));
+                    record.setColor(buffer.getInt(offset + 32));
+                    record.setConnectCount(buffer.getInt(offset + 36));
+                    record.setDisconnectCount(buffer.getInt(offset + 40));
+                    record.setLastConnectionTime(buffer.getLong(offset + 44));
+                    record.setMtu(buffer.getShort(offset + 52) & 0xFFFF);
+                    recordList.put(addressStr, record);
+                }
+            }
+            recordCount = count;
+
+            if (recordCount > COMPACTION_THRESHOLD && recordCount > 2 * recordList.size()) {
+                compact();
+            }
+            Log.i(TAG, recordList.size() + " device(s) loaded from " + recordCount + " record(s)");
+            return true;
+
+        } catch (IOException e) {
+            Log.e(TAG, "cant open device registry", e);
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * store device state
+     *
+     * @param record device state
+     */
+    public synchronized void put(DeviceRecord record) {
+        DeviceRecord copy = new DeviceRecord(record);
+        recordList.put(copy.getAddress(), copy);
+        dirtyList.remove(copy.getAddress());
+        append(copy, FLAG_LIVE);
+    }
+
+    /**
+     * update state of a known device in memory only, without any file access. Record is written on next flush() or
+     * put() for this device
+     *
+     * @param record device state
+     * @return false if device is unknown
+     */
+    public synchronized boolean update(DeviceRecord record) {
+        if (!recordList.containsKey(record.getAddress())) {
+            return false;
+        }
+        DeviceRecord copy = new DeviceRecord(record);
+        recordList.put(copy.getAddress(), copy);
+        dirtyList.add(copy.getAddress());
+        return true;
+    }
+
+    /**
+     * store state of a known or new device in memory only, without any file access. Record is written on next flush()
+     *
+     * @param record device state
+     */
+    public synchronized void add(DeviceRecord record) {
+        DeviceRecord copy = new DeviceRecord(record);
+        recordList.put(copy.getAddress(), copy);
+        dirtyList.add(copy.getAddress());
+    }
+
+    /**
+     * write devices updated in memory since last flush
+     */
+    public synchronized void flush() {
+        for (String address : dirtyList) {
+            DeviceRecord record = recordList.get(address);
+            if (record != null) {
+                append(record, FLAG_LIVE);
+            }
+        }
+        dirtyList.clear();
+    }
+
+    /**
+     * remove a device
+     *
+     * @param address device address
+     */
+    public synchronized void remove(String address) {
+        DeviceRecord record = recordList.remove(address);
+        dirtyList.remove(address);
+        if (record != null) {
+            append(record, FLAG_DELETED);
+        }
+    }
+
+    /**
+     * get a copy of device state
+     *
+     * @param address device address
+     * @return device state or null if device is unknown
+     */
+    public synchronized DeviceRecord get(String address) {
+        DeviceRecord record = recordList.get(address);
+        return (record != null) ? new DeviceRecord(record) : null;
+    }
+
+    public synchronized boolean contains(String address) {
+        return recordList.containsKey(address);
+    }
+
+    /**
+     * copy of all device states
+     *
+     * @return
+     */
+    public synchronized List<DeviceRecord> getAll() {
+        ArrayList<DeviceRecord> list = new ArrayList<>(recordList.size());
+        for (DeviceRecord record : recordList.values()) {
+            list.add(new DeviceRecord(record));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    public synchronized int size() {
+        return recordList.size();
+    }
+
+    /**
+     * flush mapped records to storage and release file
+     */
+    public synchronized void close() {
+        flush();
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            randomAccessFile = null;
+        }
+    }
+
+    private void append(DeviceRecord record, byte flags) {
+
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (recordCount >= capacity) {
+                if (recordCount > COMPACTION_THRESHOLD && recordCount > 2 * recordList.size()) {
+                    compact();
+                }
+                if (recordCount >= capacity) {
+                    map(capacity * 2);
+                }
+            }
+            writeRecord(recordCount, record, flags);
+            recordCount++;
+            //record is written before being counted
+            buffer.putInt(8, recordCount);
+
+        } catch (IOException e) {
+            Log.e(TAG, "cant grow device registry", e);
+        }
+    }
+
+    private void writeRecord(int index, DeviceRecord record, byte flags) {
+
+        int offset = HEADER_SIZE + index * RECORD_SIZE;
+
+        buffer.put(offset, flags);
+        buffer.position(offset + 1);
+        buffer.put(parseAddress(record.getAddress()));
+
+        byte[] name = record.getDeviceName().getBytes(UTF8);
+        int nameLength = Math.min(name.length, NAME_LENGTH);
+        buffer.put(offset + 7, (byte) nameLength);
+        buffer.position(offset + 8);
+        buffer.put(name, 0, nameLength);
+
+        buffer.putInt(offset + 32, record.getColor());
+        buffer.putInt(offset + 36, record.getConnectCount());
+        buffer.putInt(offset + 40, record.getDisconnectCount());
+        buffer.putLong(offset + 44, record.getLastConnectionTime());
+        buffer.putShort(offset + 52, (short) record.getMtu());
+    }
+
+    /**
+     * rewrite live records into a new file replacing current one (a crash during compaction leaves current file intact)
+     */
+    private void compact() throws IOException {
+
+        File compacted = new File(file.getPath() + ".tmp");
+
+        RandomAccessFile previousFile = randomAccessFile;
+        MappedByteBuffer previousBuffer = buffer;
+        int previousCapacity = capacity;
+
+        randomAccessFile = new RandomAccessFile(compacted, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            map(Math.max(INITIAL_CAPACITY, recordList.size() * 2));
+            writeHeader();
+
+            int index = 0;
+            for (DeviceRecord record : recordList.values()) {
+                writeRecord(index++, record, FLAG_LIVE);
+            }
+            buffer.putInt(8, index);
+            buffer.force();
+            randomAccessFile.close();
+
+            Log.i(TAG, "device registry compacted from " + recordCount + " to " + index + " record(s)");
+
+            previousBuffer.force();
+            previousFile.close();
+
+            if (!compacted.renameTo(file)) {
+                throw new IOException("cant replace " + file);
+            }
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            map(capacity);
+            recordCount = index;
+
+        } catch (IOException e) {
+            //keep working on previous file if it is still open
+            compacted.delete();
+            randomAccessFile = previousFile;
+            buffer = previousBuffer;
+            capacity = previousCapacity;
+            if (!previousFile.getChannel().isOpen()) {
+                throw e;
+            }
+            Log.e(TAG, "device registry compaction failed", e);
+        }
+    }
+
+    private void map(int recordCapacity) throws IOException {
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) recordCapacity * RECORD_SIZE);
+        capacity = recordCapacity;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) RECORD_SIZE);
+        buffer.putInt(8, 0);
+        buffer.putInt(12, 0);
+    }
+
+    private static byte[] parseAddress(String address) {
+        byte[] data = new byte[ADDRESS_LENGTH];
+        String[] parts = address.split(":");
+        for (int i = 0; i < ADDRESS_LENGTH && i < parts.length; i++) {
+            data[i] = (byte) Integer.parseInt(parts[i], 16);
+        }
+        return data;
+    }
+
+    private static String formatAddress(byte[] address) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int i = 0; i < address.length; i++) {
+            if (i > 0) {
+                builder.append(':');
+            }
+            int value = address[i] & 0xFF;
+            builder.append(Character.toUpperCase(Character.forDigit(value >> 4, 16)));
+            builder.append(Character.toUpperCase(Character.forDigit(value & 0x0F, 16)));
+        }
+        return builder.toString();
+    }
+}
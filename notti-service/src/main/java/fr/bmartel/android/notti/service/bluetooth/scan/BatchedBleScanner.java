@@ -0,0 +1,156 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.scan;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import fr.bmartel.android.notti.service.bluetooth.listener.IScanListener;
+
+/**
+ * Scanner using BluetoothLeScanner (API 21+) : advertisements are filtered by service uuid and, when the controller
+ * supports it, batched so that the application is only woken up once per report delay
+ *
+ * @author Bertrand Martel
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class BatchedBleScanner implements IBleScanner {
+
+    private final static String TAG = BatchedBleScanner.class.getName();
+
+    /**
+     * delay in ms during which results are batched by controller
+     */
+    private final static long REPORT_DELAY = 1000;
+
+    private final BluetoothAdapter adapter;
+
+    private final IScanListener listener;
+
+    private final List<ScanFilter> filterList = new ArrayList<>();
+
+    /**
+     * settings used for user scans
+     */
+    private ScanSettings settings = null;
+
+    /**
+     * settings used for background scan windows
+     */
+    private ScanSettings backgroundSettings = null;
+
+    private BluetoothLeScanner scanner = null;
+
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            listener.onNewDeviceFound(result.getDevice());
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) {
+                listener.onNewDeviceFound(results.get(i).getDevice());
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.e(TAG, "scan failed with error " + errorCode);
+            listener.onScanFailed(errorCode);
+        }
+    };
+
+    /**
+     * @param adapter     bluetooth adapter
+     * @param serviceUuid advertised service uuid to filter on (null for no filter)
+     * @param listener    scan result listener
+     */
+    public BatchedBleScanner(BluetoothAdapter adapter, UUID serviceUuid, IScanListener listener) {
+        this.adapter = adapter;
+        this.listener = listener;
+
+        if (serviceUuid != null) {
+            filterList.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build());
+        }
+    }
+
+    /**
+     * check if batched scanner can be used on this device
+     *
+     * @return
+     */
+    public static boolean isSupported() {
+        //LE scanner availability depends on bluetooth state and is checked on each start
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public boolean start(boolean background) {
+        //scanner is null when bluetooth is off
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            return false;
+        }
+        if (settings == null) {
+            //batching support is only reported while bluetooth is on
+            settings = buildSettings(ScanSettings.SCAN_MODE_LOW_LATENCY);
+            backgroundSettings = buildSettings(ScanSettings.SCAN_MODE_BALANCED);
+        }
+        scanner.startScan(filterList, background ? backgroundSettings : settings, scanCallback);
+        return true;
+    }
+
+    private ScanSettings buildSettings(int scanMode) {
+
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(scanMode);
+
+        if (adapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(REPORT_DELAY);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void stop() {
+        if (scanner != null) {
+            //deliver results still batched in controller
+            scanner.flushPendingScanResults(scanCallback);
+            scanner.stopScan(scanCallback);
+            scanner = null;
+        }
+    }
+}
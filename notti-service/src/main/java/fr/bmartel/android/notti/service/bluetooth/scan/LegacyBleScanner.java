@@ -0,0 +1,64 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.scan;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+
+import fr.bmartel.android.notti.service.bluetooth.listener.IScanListener;
+
+/**
+ * Scanner using deprecated BluetoothAdapter LE scan (API < 21) : every advertisement is delivered to the application
+ *
+ * @author Bertrand Martel
+ */
+@SuppressLint("NewApi")
+public class LegacyBleScanner implements IBleScanner {
+
+    private final BluetoothAdapter adapter;
+
+    private final BluetoothAdapter.LeScanCallback scanCallback;
+
+    public LegacyBleScanner(BluetoothAdapter adapter, final IScanListener listener) {
+        this.adapter = adapter;
+        scanCallback = new BluetoothAdapter.LeScanCallback() {
+            @Override
+            public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+                listener.onNewDeviceFound(device);
+            }
+        };
+    }
+
+    @Override
+    public boolean start(boolean background) {
+        //scan mode cant be selected with legacy api
+        return adapter.startLeScan(scanCallback);
+    }
+
+    @Override
+    public void stop() {
+        adapter.stopLeScan(scanCallback);
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.scan;
+
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
+
+/**
+ * Duty-cycled background scan driven by the timer wheel
+ * <p/>
+ * Scan windows of onWindow ms are started every offPeriod ms. The intensified duty cycle is used while a known device
+ * is missing. A window is not started while the link is busy and an active window is stopped as soon as gatt
+ * traffic resumes, since scanning concurrently with gatt operations hurts throughput on many controllers.
+ *
+ * @author Bertrand Martel
+ */
+public class ScanScheduler {
+
+    /**
+     * scan window / link state provider
+     */
+    public interface IScanHost {
+
+        /**
+         * start a scan window
+         *
+         * @return false if window couldnt be started
+         */
+        public boolean startScanWindow();
+
+        public void stopScanWindow();
+
+        public boolean isLinkBusy();
+
+        public boolean isKnownDeviceMissing();
+    }
+
+    public final static int DEFAULT_ON_WINDOW = 2000;
+
+    public final static int DEFAULT_OFF_PERIOD = 28000;
+
+    public final static int DEFAULT_INTENSIFIED_ON_WINDOW = 4000;
+
+    public final static int DEFAULT_INTENSIFIED_OFF_PERIOD = 6000;
+
+    /**
+     * delay before retrying a window suspended because link was busy
+     */
+    private final static int BUSY_RETRY_DELAY = 1000;
+
+    private final HashedWheelTimer timer;
+
+    private final IScanHost host;
+
+    private volatile int onWindow = DEFAULT_ON_WINDOW;
+
+    private volatile int offPeriod = DEFAULT_OFF_PERIOD;
+
+    private volatile int intensifiedOnWindow = DEFAULT_INTENSIFIED_ON_WINDOW;
+
+    private volatile int intensifiedOffPeriod = DEFAULT_INTENSIFIED_OFF_PERIOD;
+
+    private boolean running = false;
+
+    private volatile boolean windowActive = false;
+
+    private long windowCount = 0;
+
+    private long suspendedCount = 0;
+
+    private final HashedWheelTimer.Timeout cycle = new HashedWheelTimer.Timeout() {
+        @Override
+        public void onTimeout() {
+            nextStep();
+        }
+    };
+
+    public ScanScheduler(HashedWheelTimer timer, IScanHost host) {
+        this.timer = timer;
+        this.host = host;
+    }
+
+    /**
+     * set normal duty cycle
+     *
+     * @param onWindow  scan window duration in ms
+     * @param offPeriod delay between two windows in ms
+     */
+    public void setDutyCycle(int onWindow, int offPeriod) {
+        this.onWindow = onWindow;
+        this.offPeriod = offPeriod;
+    }
+
+    /**
+     * set duty cycle used while a known device is missing
+     *
+     * @param onWindow  scan window duration in ms
+     * @param offPeriod delay between two windows in ms
+     */
+    public void setIntensifiedDutyCycle(int onWindow, int offPeriod) {
+        this.intensifiedOnWindow = onWindow;
+        this.intensifiedOffPeriod = offPeriod;
+    }
+
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            timer.schedule(cycle, 0);
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        timer.cancel(cycle);
+        if (windowActive) {
+            windowActive = false;
+            host.stopScanWindow();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public boolean isWindowActive() {
+        return windowActive;
+    }
+
+    /**
+     * stop active scan window and retry later : called on gatt activity
+     */
+    public void suspend() {
+
+        //fast path for gatt operation scheduling
+        if (!windowActive) {
+            return;
+        }
+        synchronized (this) {
+            if (windowActive) {
+                windowActive = false;
+                suspendedCount++;
+                host.stopScanWindow();
+                if (running) {
+                    timer.schedule(cycle, BUSY_RETRY_DELAY);
+                }
+            }
+        }
+    }
+
+    /**
+     * end active scan window after scan failure reported by controller, next window is started after off period
+     */
+    public synchronized void onWindowFailed() {
+
+        if (!windowActive) {
+            return;
+        }
+        windowActive = false;
+        host.stopScanWindow();
+        if (running) {
+            timer.schedule(cycle, host.isKnownDeviceMissing() ? intensifiedOffPeriod : offPeriod);
+        }
+    }
+
+    private synchronized void nextStep() {
+
+        if (!running) {
+            return;
+        }
+        boolean intensified = host.isKnownDeviceMissing();
+
+        if (windowActive) {
+            windowActive = false;
+            host.stopScanWindow();
+            timer.schedule(cycle, intensified ? intensifiedOffPeriod : offPeriod);
+        } else if (host.isLinkBusy()) {
+            suspendedCount++;
+            timer.schedule(cycle, BUSY_RETRY_DELAY);
+        } else if (host.startScanWindow()) {
+            windowActive = true;
+            windowCount++;
+            timer.schedule(cycle, intensified ? intensifiedOnWindow : onWindow);
+        } else {
+            timer.schedule(cycle, intensified ? intensifiedOffPeriod : offPeriod);
+        }
+    }
+
+    public synchronized long getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * number of windows skipped or interrupted because link was busy
+     *
+     * @return
+     */
+    public synchronized long getSuspendedCount() {
+        return suspendedCount;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+/**
+ * Subscription keeping track of subscriber demand
+ * <p/>
+ * Items offered while subscriber has no outstanding demand are not queued : only the latest one is kept and delivered
+ * on next request(), previous ones are dropped
+ *
+ * @author Bertrand Martel
+ */
+abstract class DemandSubscription<T> implements ISubscription {
+
+    protected final ISubscriber<T> subscriber;
+
+    /**
+     * outstanding demand
+     */
+    private long requested = 0;
+
+    /**
+     * latest item received while demand was exhausted
+     */
+    private T pending = null;
+
+    private volatile boolean cancelled = false;
+
+    private long droppedCount = 0;
+
+    DemandSubscription(ISubscriber<T> subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    /**
+     * deliver an item or keep it until subscriber requests more
+     *
+     * @param item item to deliver (not null)
+     */
+    protected synchronized void offer(T item) {
+
+        if (cancelled || item == null) {
+            return;
+        }
+        if (requested > 0) {
+            if (requested != Long.MAX_VALUE) {
+                requested--;
+            }
+            subscriber.onNext(item);
+        } else {
+            if (pending != null) {
+                droppedCount++;
+            }
+            pending = item;
+        }
+    }
+
+    @Override
+    public synchronized void request(long n) {
+
+        if (n <= 0 || cancelled) {
+            return;
+        }
+        requested += n;
+        if (requested < 0) {
+            requested = Long.MAX_VALUE;
+        }
+        if (pending != null) {
+            T item = pending;
+            pending = null;
+            offer(item);
+        }
+    }
+
+    /**
+     * end subscription, an item still waiting for demand is dropped
+     */
+    protected void complete() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = null;
+            subscriber.onComplete();
+        }
+        onCancel();
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            pending = null;
+        }
+        onCancel();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * number of items dropped because subscriber was not requesting
+     *
+     * @return
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * release resources of this subscription (called once)
+     */
+    protected abstract void onCancel();
+}
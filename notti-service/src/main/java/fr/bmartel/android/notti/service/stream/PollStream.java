@@ -0,0 +1,81 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
+
+/**
+ * Stream polling a value source at a fixed period, polling only runs while subscribed
+ *
+ * @author Bertrand Martel
+ */
+class PollStream<T> extends Stream<T> {
+
+    private final IValueSource<T> source;
+
+    private final long period;
+
+    private final HashedWheelTimer timer;
+
+    PollStream(IValueSource<T> source, long period, HashedWheelTimer timer) {
+        this.source = source;
+        this.period = period;
+        this.timer = timer;
+    }
+
+    @Override
+    public void subscribe(ISubscriber<T> subscriber) {
+        PollSubscription subscription = new PollSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (!subscription.isCancelled()) {
+            timer.schedule(subscription.pollTimeout, period);
+        }
+    }
+
+    private class PollSubscription extends DemandSubscription<T> {
+
+        private final HashedWheelTimer.Timeout pollTimeout = new HashedWheelTimer.Timeout() {
+            @Override
+            public void onTimeout() {
+                offer(source.get());
+                if (!isCancelled()) {
+                    timer.schedule(this, period);
+                    //subscription may have been cancelled concurrently
+                    if (isCancelled()) {
+                        timer.cancel(this);
+                    }
+                }
+            }
+        };
+
+        PollSubscription(ISubscriber<T> subscriber) {
+            super(subscriber);
+        }
+
+        @Override
+        protected void onCancel() {
+            timer.cancel(pollTimeout);
+        }
+    }
+}
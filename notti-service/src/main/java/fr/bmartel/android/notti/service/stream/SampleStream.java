@@ -0,0 +1,117 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
+
+/**
+ * Stream emitting latest upstream item at a fixed period
+ *
+ * @author Bertrand Martel
+ */
+class SampleStream<T> extends Stream<T> {
+
+    private final Stream<T> upstream;
+
+    private final long period;
+
+    private final HashedWheelTimer timer;
+
+    SampleStream(Stream<T> upstream, long period, HashedWheelTimer timer) {
+        this.upstream = upstream;
+        this.period = period;
+        this.timer = timer;
+    }
+
+    @Override
+    public void subscribe(ISubscriber<T> subscriber) {
+        SampleSubscription subscription = new SampleSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        upstream.subscribe(subscription);
+    }
+
+    private class SampleSubscription extends DemandSubscription<T> implements ISubscriber<T> {
+
+        private volatile ISubscription upstreamSubscription = null;
+
+        /**
+         * latest upstream item not sampled yet
+         */
+        private final AtomicReference<T> latest = new AtomicReference<>();
+
+        private final HashedWheelTimer.Timeout sampleTimeout = new HashedWheelTimer.Timeout() {
+            @Override
+            public void onTimeout() {
+                T item = latest.getAndSet(null);
+                if (item != null) {
+                    offer(item);
+                }
+                if (!isCancelled()) {
+                    timer.schedule(this, period);
+                    //subscription may have been cancelled concurrently
+                    if (isCancelled()) {
+                        timer.cancel(this);
+                    }
+                }
+            }
+        };
+
+        SampleSubscription(ISubscriber<T> subscriber) {
+            super(subscriber);
+        }
+
+        @Override
+        public void onSubscribe(ISubscription subscription) {
+            upstreamSubscription = subscription;
+            if (isCancelled()) {
+                subscription.cancel();
+                return;
+            }
+            //upstream items are only retained until next sample
+            subscription.request(Long.MAX_VALUE);
+            timer.schedule(sampleTimeout, period);
+        }
+
+        @Override
+        public void onNext(T item) {
+            latest.set(item);
+        }
+
+        @Override
+        public void onComplete() {
+            complete();
+        }
+
+        @Override
+        protected void onCancel() {
+            timer.cancel(sampleTimeout);
+            ISubscription subscription = upstreamSubscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+import fr.bmartel.android.notti.service.utils.HashedWheelTimer;
+
+/**
+ * Stream of items delivered to subscribers according to their demand (see ISubscription.request)
+ *
+ * @author Bertrand Martel
+ */
+public abstract class Stream<T> {
+
+    /**
+     * subscribe to this stream
+     *
+     * @param subscriber subscriber
+     */
+    public abstract void subscribe(ISubscriber<T> subscriber);
+
+    /**
+     * stream emitting latest item received during each period (nothing if no item was received)
+     *
+     * @param period sampling period in ms
+     * @param timer  timer used to trigger sampling
+     * @return sampled stream
+     */
+    public Stream<T> sample(long period, HashedWheelTimer timer) {
+        return new SampleStream<>(this, period, timer);
+    }
+
+    /**
+     * stream emitting first item received then ignoring items during interval
+     *
+     * @param interval minimum interval between two items in ms
+     * @return throttled stream
+     */
+    public Stream<T> throttle(long interval) {
+        return new ThrottleStream<>(this, interval);
+    }
+
+    /**
+     * stream polling a value source periodically for each subscriber
+     *
+     * @param source value source
+     * @param period polling period in ms
+     * @param timer  timer used to trigger polling
+     * @return polling stream
+     */
+    public static <T> Stream<T> poll(IValueSource<T> source, long period, HashedWheelTimer timer) {
+        return new PollStream<>(source, period, timer);
+    }
+}
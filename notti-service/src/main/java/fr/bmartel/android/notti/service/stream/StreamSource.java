@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stream fed by emit() calls and shared by all its subscribers. Items emitted before subscription are not replayed
+ *
+ * @author Bertrand Martel
+ */
+public class StreamSource<T> extends Stream<T> {
+
+    private final CopyOnWriteArrayList<SourceSubscription> subscriptionList = new CopyOnWriteArrayList<>();
+
+    private volatile boolean completed = false;
+
+    private class SourceSubscription extends DemandSubscription<T> {
+
+        SourceSubscription(ISubscriber<T> subscriber) {
+            super(subscriber);
+        }
+
+        @Override
+        protected void onCancel() {
+            subscriptionList.remove(this);
+        }
+    }
+
+    @Override
+    public void subscribe(ISubscriber<T> subscriber) {
+
+        SourceSubscription subscription = new SourceSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+
+        if (!completed) {
+            subscriptionList.add(subscription);
+        }
+        //stream may have completed concurrently
+        if (completed) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * deliver an item to all subscribers
+     *
+     * @param item item (not null)
+     */
+    public void emit(T item) {
+        for (SourceSubscription subscription : subscriptionList) {
+            subscription.offer(item);
+        }
+    }
+
+    /**
+     * end stream for all subscribers
+     */
+    public void complete() {
+        completed = true;
+        for (SourceSubscription subscription : subscriptionList) {
+            subscription.complete();
+        }
+    }
+
+    /**
+     * check if some subscribers are registered, to avoid building items nobody will receive
+     *
+     * @return
+     */
+    public boolean hasSubscribers() {
+        return !subscriptionList.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptionList.size();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.stream;
+
+/**
+ * Stream emitting first upstream item of each interval
+ *
+ * @author Bertrand Martel
+ */
+class ThrottleStream<T> extends Stream<T> {
+
+    private final Stream<T> upstream;
+
+    private final long interval;
+
+    ThrottleStream(Stream<T> upstream, long interval) {
+        this.upstream = upstream;
+        this.interval = interval;
+    }
+
+    @Override
+    public void subscribe(ISubscriber<T> subscriber) {
+        ThrottleSubscription subscription = new ThrottleSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        upstream.subscribe(subscription);
+    }
+
+    private class ThrottleSubscription extends DemandSubscription<T> implements ISubscriber<T> {
+
+        private volatile ISubscription upstreamSubscription = null;
+
+        private boolean emitted = false;
+
+        /**
+         * time of last emitted item in ms
+         */
+        private long lastEmitTime = 0;
+
+        ThrottleSubscription(ISubscriber<T> subscriber) {
+            super(subscriber);
+        }
+
+        @Override
+        public void onSubscribe(ISubscription subscription) {
+            upstreamSubscription = subscription;
+            if (isCancelled()) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public synchronized void onNext(T item) {
+
+            long now = System.nanoTime() / 1000000;
+
+            if (!emitted || now - lastEmitTime >= interval) {
+                emitted = true;
+                lastEmitTime = now;
+                offer(item);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            complete();
+        }
+
+        @Override
+        protected void onCancel() {
+            ISubscription subscription = upstreamSubscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+}
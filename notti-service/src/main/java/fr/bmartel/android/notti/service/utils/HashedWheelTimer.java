@@ -0,0 +1,263 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.utils;
+
+/**
+ * Hashed wheel timer : timeouts are hashed by expiration tick into a fixed number of buckets
+ * <p/>
+ * schedule and cancel are O(1). Timeout objects are intrusive list nodes so scheduling a timeout does not allocate.
+ * A single worker thread advances the wheel every tick while timeouts are pending and sleeps otherwise.
+ *
+ * @author Bertrand Martel
+ */
+public class HashedWheelTimer {
+
+    private final long tickDuration;
+
+    private final int mask;
+
+    private final Timeout[] wheel;
+
+    /**
+     * last tick processed by worker
+     */
+    private long tick = 0;
+
+    private int pendingCount = 0;
+
+    private final long startTime;
+
+    private Thread worker = null;
+
+    private volatile boolean running = false;
+
+    private String name = "";
+
+    /**
+     * Build a hashed wheel timer
+     *
+     * @param name         worker thread name
+     * @param tickDuration tick duration in ms (timer resolution)
+     * @param wheelSize    number of buckets (rounded up to a power of 2)
+     */
+    public HashedWheelTimer(String name, long tickDuration, int wheelSize) {
+        this.name = name;
+        this.tickDuration = tickDuration;
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Timeout[size];
+        mask = size - 1;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * start timer worker thread
+     */
+    public synchronized void start() {
+
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HashedWheelTimer.this.run();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * stop timer worker thread, pending timeouts are dropped
+     */
+    public synchronized void stop() {
+        running = false;
+        for (int i = 0; i < wheel.length; i++) {
+            while (wheel[i] != null) {
+                unlink(wheel[i]);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * schedule a timeout (a timeout already scheduled is rescheduled)
+     *
+     * @param timeout timeout to schedule
+     * @param delay   delay in ms
+     */
+    public synchronized void schedule(Timeout timeout, long delay) {
+
+        if (timeout.timer != null) {
+            timeout.timer.cancel(timeout);
+        }
+        long deadline = elapsedMillis() + Math.max(0, delay);
+
+        timeout.deadlineTick = Math.max(currentTick() + 1, (deadline + tickDuration - 1) / tickDuration);
+        timeout.bucket = (int) (timeout.deadlineTick & mask);
+        timeout.timer = this;
+        timeout.prev = null;
+        timeout.next = wheel[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        wheel[timeout.bucket] = timeout;
+
+        if (pendingCount++ == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * cancel a timeout
+     *
+     * @param timeout timeout to cancel
+     * @return true if timeout was pending
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (timeout.timer != this) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private long currentTick() {
+        return elapsedMillis() / tickDuration;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.timer = null;
+        pendingCount--;
+    }
+
+    private void run() {
+
+        while (running) {
+
+            Timeout expired = null;
+
+            synchronized (this) {
+                try {
+                    if (pendingCount == 0) {
+                        wait();
+                        continue;
+                    }
+                    long nextTickTime = (tick + 1) * tickDuration;
+                    long delay = nextTickTime - elapsedMillis();
+                    if (delay > 0 && currentTick() <= tick) {
+                        wait(delay);
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                long target = currentTick();
+                int processed = 0;
+
+                while (tick < target) {
+                    tick++;
+                    if (processed++ < wheel.length) {
+                        expired = expire(wheel[(int) (tick & mask)], target, expired);
+                    }
+                }
+            }
+
+            while (expired != null) {
+                Timeout next = expired.nextExpired;
+                expired.nextExpired = null;
+                try {
+                    expired.onTimeout();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                expired = next;
+            }
+        }
+    }
+
+    /**
+     * unlink timeouts of a bucket that are due and chain them to expired list
+     */
+    private Timeout expire(Timeout head, long target, Timeout expired) {
+
+        Timeout timeout = head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= target) {
+                unlink(timeout);
+                timeout.nextExpired = expired;
+                expired = timeout;
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    /**
+     * Timeout to be extended by objects that need to be timed out
+     */
+    public abstract static class Timeout {
+
+        private Timeout prev = null;
+
+        private Timeout next = null;
+
+        private Timeout nextExpired = null;
+
+        private HashedWheelTimer timer = null;
+
+        private long deadlineTick = 0;
+
+        private int bucket = 0;
+
+        /**
+         * called from timer thread when timeout expires
+         */
+        public abstract void onTimeout();
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.notti;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Notti frame decoding
+ * <p/>
+ * Layout of notified frames is not documented by the vendor : these tests cover decoder mechanics (classification by
+ * characteristic and command id, bounds, allocation), not the lamp protocol.
+ *
+ * @author Bertrand Martel
+ */
+public class NottiFrameDecoderTest {
+
+    private final static UUID COMMAND_UID = UUID.fromString("0000fff3-0000-1000-8000-00805f9b34fb");
+
+    private final static UUID RESPONSE_UID = UUID.fromString("0000fff4-0000-1000-8000-00805f9b34fb");
+
+    private NottiFrameDecoder decoder;
+
+    private int lastRGB;
+
+    private int ackCount;
+
+    @Before
+    public void setUp() {
+        decoder = new NottiFrameDecoder(RESPONSE_UID);
+        decoder.setListener(new INottiFrameListener() {
+            @Override
+            public void onColorReport(NottiFrame frame) {
+                lastRGB = frame.getRGB();
+            }
+
+            @Override
+            public void onAck(NottiFrame frame) {
+                ackCount++;
+            }
+
+            @Override
+            public void onUnknownFrame(NottiFrame frame) {
+            }
+        });
+    }
+
+    @Test
+    public void decodeColorReport() {
+        byte[] data = new byte[]{6, 1, 0x12, 0x34, 0x56};
+        assertEquals(NottiFrame.TYPE_COLOR_REPORT, decoder.decode(COMMAND_UID, data, data.length));
+        assertEquals(0x123456, lastRGB);
+    }
+
+    @Test
+    public void decodeColorReportIsNotFilteredByValue() {
+        byte[] data = new byte[]{6, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        assertEquals(NottiFrame.TYPE_COLOR_REPORT, decoder.decode(COMMAND_UID, data, data.length));
+        assertEquals(0xFFFFFF, lastRGB);
+
+        data = new byte[]{6, 1, 0, 0, 0};
+        assertEquals(NottiFrame.TYPE_COLOR_REPORT, decoder.decode(COMMAND_UID, data, data.length));
+        assertEquals(0, lastRGB);
+    }
+
+    @Test
+    public void decodeAck() {
+        byte[] data = new byte[]{6, 0};
+        assertEquals(NottiFrame.TYPE_ACK, decoder.decode(RESPONSE_UID, data, data.length));
+        assertEquals(1, ackCount);
+    }
+
+    @Test
+    public void decodeUnknown() {
+        byte[] data = new byte[]{7, 1, 0, 0, 0};
+        assertEquals(NottiFrame.TYPE_UNKNOWN, decoder.decode(COMMAND_UID, data, data.length));
+        //truncated color frame
+        assertEquals(NottiFrame.TYPE_UNKNOWN, decoder.decode(COMMAND_UID, data, 3));
+    }
+
+    @Test
+    public void decodeDoesNotAllocate() {
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] color = new byte[]{6, 1, 0x12, 0x34, 0x56};
+        byte[] ack = new byte[]{6, 0};
+        long threadId = Thread.currentThread().getId();
+
+        //warm up so that measured loop runs compiled code
+        for (int i = 0; i < 20000; i++) {
+            decoder.decode(COMMAND_UID, color, color.length);
+            decoder.decode(RESPONSE_UID, ack, ack.length);
+        }
+
+        int frames = 200000;
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames / 2; i++) {
+            decoder.decode(COMMAND_UID, color, color.length);
+            decoder.decode(RESPONSE_UID, ack, ack.length);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        //only allowance is for the measurement itself
+        assertTrue("decoding allocated " + allocated + " bytes for " + frames + " frames", allocated < 1024);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.bluetooth.record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gatt session recording and reading
+ *
+ * @author Bertrand Martel
+ */
+public class GattRecordTest {
+
+    private final static String ADDRESS = "AA:BB:CC:DD:EE:FF";
+
+    private final static String UID = "0000fff3-0000-1000-8000-00805f9b34fb";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsAreReadBack() throws IOException {
+
+        File file = folder.newFile("session.gatt");
+
+        GattRecorder recorder = new GattRecorder(file);
+        recorder.record(GattRecord.OP_WRITE, ADDRESS, UID, 0, new byte[]{6, 1, 1, 2, 3});
+        recorder.record(GattRecord.CB_WRITE, ADDRESS, UID, 0, null);
+        recorder.record(GattRecord.CB_CONNECTION_STATE, "11:22:33:44:55:66", "", 2, null);
+        recorder.close();
+        assertEquals(3, recorder.getRecordCount());
+
+        GattRecordReader reader = new GattRecordReader(file);
+
+        GattRecord record = reader.next();
+        assertEquals(GattRecord.OP_WRITE, record.getType());
+        assertTrue(record.isOperation());
+        assertEquals(ADDRESS, record.getAddress());
+        assertEquals(UID, record.getUid());
+        assertArrayEquals(new byte[]{6, 1, 1, 2, 3}, record.getValue());
+
+        record = reader.next();
+        assertEquals(GattRecord.CB_WRITE, record.getType());
+        assertEquals(ADDRESS, record.getAddress());
+        assertNull(record.getValue());
+
+        record = reader.next();
+        assertEquals(GattRecord.CB_CONNECTION_STATE, record.getType());
+        assertEquals("11:22:33:44:55:66", record.getAddress());
+        assertEquals(2, record.getStatus());
+
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidFileIsRejected() throws IOException {
+        File file = folder.newFile("invalid.gatt");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[]{1, 2, 3, 4, 5});
+        output.close();
+        new GattRecordReader(file);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * The MIT License (MIT)
+ * <p/>
+ * Copyright (c) 2015 Bertrand Martel
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package fr.bmartel.android.notti.service.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hashed wheel timer
+ *
+ * @author Bertrand Martel
+ */
+public class HashedWheelTimerTest {
+
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer("test-timer", 10, 64);
+        timer.start();
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    private static class LatchTimeout extends HashedWheelTimer.Timeout {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void onTimeout() {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void timeoutExpires() throws InterruptedException {
+        LatchTimeout timeout = new LatchTimeout();
+        long start = System.nanoTime();
+        timer.schedule(timeout, 50);
+        assertTrue(timeout.latch.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test
+    public void timeoutBeyondWheelRevolutionExpires() throws InterruptedException {
+        //64 buckets of 10ms : deadline is more than one revolution away
+        LatchTimeout timeout = new LatchTimeout();
+        timer.schedule(timeout, 900);
+        assertFalse(timeout.latch.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(timeout.latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotExpire() throws InterruptedException {
+        LatchTimeout timeout = new LatchTimeout();
+        timer.schedule(timeout, 50);
+        assertTrue(timer.cancel(timeout));
+        assertFalse(timer.cancel(timeout));
+        assertFalse(timeout.latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, timer.getPendingCount());
+    }
+}